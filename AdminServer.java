@@ -0,0 +1,81 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AdminServer - Local-only text endpoint for inspecting a running server.
+ *
+ * Listens on the loopback interface. Each connection sends one command line
+ * and gets a text reply before the connection is closed:
+ *
+ *   metrics            dump the metrics registry (default for an empty line)
+ *   stats              server statistics
+ *   log-level [LEVEL]  show or change the log level
+ *
+ * For example: echo metrics | nc localhost 8889
+ */
+public class AdminServer {
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+
+    public AdminServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        this.thread = new Thread(this::acceptLoop, "admin-server");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.error("❌ Error closing admin endpoint: " + e.getMessage());
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                String command = in.readLine();
+                out.write(handle(command == null ? "" : command.trim()));
+                out.write(System.lineSeparator());
+                out.flush();
+            } catch (SocketException e) {
+                // Closed during shutdown, or the client went away
+            } catch (IOException e) {
+                Log.warn("⚠️ Admin request failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private String handle(String command) {
+        String[] parts = command.split("\\s+", 2);
+        switch (parts[0]) {
+            case "":
+            case "metrics":
+                return Metrics.snapshot();
+            case "stats":
+                return ChatServer.getServerStats();
+            case "log-level":
+                if (parts.length > 1) {
+                    try {
+                        Log.setLevel(Log.parseLevel(parts[1]));
+                        Log.info("🔧 Log level set to " + Log.getLevel() + " from the admin endpoint");
+                    } catch (IllegalArgumentException e) {
+                        return "Unknown log level: " + parts[1];
+                    }
+                }
+                return "Log level: " + Log.getLevel();
+            default:
+                return "Unknown command: " + parts[0] + " (try metrics, stats or log-level [LEVEL])";
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryProtocol - Optional length-prefixed framing used instead of text lines.
+ *
+ * A client asks for it by sending the HELLO line as its first message and
+ * waiting for the ACK line; from then on both directions use frames:
+ *
+ *   varint length | varint opcode | fields
+ *
+ * Rooms and users are referred to by small integer IDs that the server
+ * defines to each client (ROOM / USER frames) before their first use, so
+ * chat frames carry no names. An ID may later be defined again for another
+ * name, once its old room closed or user left; the latest definition wins.
+ * Anything without a dedicated
+ * opcode travels as a TEXT frame holding the usual protocol line.
+ * Clients that never send HELLO keep using the line protocol.
+ */
+public final class BinaryProtocol {
+    public static final String HELLO = "PROTOCOL binary";
+    public static final String ACK = "[PROTOCOL] binary";
+
+    public static final int TEXT = 0;  // utf8 line
+    public static final int ROOM = 1;  // varint roomId, utf8 name          (server → client)
+    public static final int USER = 2;  // varint userId, utf8 name          (server → client)
+    public static final int CHAT = 3;  // varint roomId, varint userId, varint seq + 1, utf8 text (server → client)
+    public static final int SEND = 4;  // varint roomId, utf8 text          (client → server)
+
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 - 16; // body only, so a whole frame fits the server's 64K read buffer
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private BinaryProtocol() {
+    }
+
+    public static ByteBuffer text(String line) {
+        return frame(utf8(line), TEXT);
+    }
+
+    public static ByteBuffer room(int roomId, String name) {
+        return frame(utf8(name), ROOM, roomId);
+    }
+
+    public static ByteBuffer user(int userId, String name) {
+        return frame(utf8(name), USER, userId);
+    }
+
+    /**
+     * @param seq sequence number of the message in its room, or -1 if it has none
+     */
+    public static ByteBuffer chat(int roomId, int userId, long seq, String text) {
+        return frame(utf8(text), CHAT, roomId, userId, seq + 1);
+    }
+
+    public static ByteBuffer send(int roomId, String text) {
+        return frame(utf8(text), SEND, roomId);
+    }
+
+    /**
+     * Build a complete frame from its opcode and varint fields followed by a payload
+     */
+    private static ByteBuffer frame(byte[] payload, long... fields) {
+        int bodyLength = payload.length;
+        for (long field : fields) {
+            bodyLength += varintSize(field);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(varintSize(bodyLength) + bodyLength);
+        putVarint(frame, bodyLength);
+        for (long field : fields) {
+            putVarint(frame, field);
+        }
+        frame.put(payload).flip();
+        return frame;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? NO_PAYLOAD : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint
+     * @throws BufferUnderflowException if the buffer ends inside the varint
+     */
+    public static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Decode the rest of a frame as UTF-8. Strings end up in text lines and
+     * the history log, so they may not contain line breaks; text clients
+     * cannot send those either, since readLine splits on them.
+     * @throws IllegalArgumentException if the string contains CR or LF
+     */
+    public static String readString(ByteBuffer buffer) {
+        // Neither byte occurs inside a multi-byte UTF-8 sequence, so the raw bytes can be checked
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                throw new IllegalArgumentException("Line break in string");
+            }
+        }
+
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.limit());
+        return s;
+    }
+
+    /**
+     * Read the length prefix of the frame at the buffer's position
+     * @return the body length with the buffer positioned after the prefix,
+     *         or -1 (position unchanged) if the prefix is not complete yet
+     */
+    public static int readFrameHeader(ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            long length = readVarint(buffer);
+            if (length > MAX_FRAME_LENGTH) {
+                throw new IllegalArgumentException("Frame too long: " + length + " bytes");
+            }
+            return (int) length;
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            return -1;
+        }
+    }
+
+    /**
+     * Block until a whole frame has been read from a stream
+     * @return the frame body, or null at end of stream
+     */
+    public static ByteBuffer readFrame(InputStream in) throws IOException {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) return null;
+                throw new EOFException("Stream ended inside a frame header");
+            }
+            if (shift >= 7 * MAX_VARINT_BYTES) throw new IOException("Malformed frame header");
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too long: " + length + " bytes");
+        }
+
+        byte[] body = in.readNBytes((int) length);
+        if (body.length < length) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+        return ByteBuffer.wrap(body);
+    }
+
+    /**
+     * Write a frame built by this class to a stream
+     */
+    public static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+}
@@ -1,15 +1,31 @@
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
-import javax.swing.text.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * ChatClientUI - Swing-based GUI client for the multi-room chat system
@@ -17,7 +33,7 @@ import java.util.HashSet;
 public class ChatClientUI {
     // UI Components
     private JFrame frame;
-    private JTextPane chatArea;
+    private JList<ChatEntry> chatList;
     private JTextField inputField;
     private JLabel typingLabel;
     private JLabel titleLabel;
@@ -27,29 +43,77 @@ public class ChatClientUI {
     private JList<String> usersList;
     private DefaultListModel<String> usersListModel;
     
-    // Network components
-    private PrintWriter out;
-    private Socket socket;
-    private BufferedReader in;
+    // Retained chat messages, and decoded server events waiting for the next frame
+    private final TranscriptModel transcript = new TranscriptModel(TRANSCRIPT_LIMIT);
+    private final BlockingQueue<ServerEvent> pendingEvents = new ArrayBlockingQueue<>(EVENT_QUEUE_CAPACITY);
+    private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private final javax.swing.Timer renderTimer = createRenderTimer();
+    
+    // Network components; replaced as a whole on every reconnect
+    private volatile Connection connection;
+    
+    // IDs the server has defined to us over the binary protocol
+    private final Map<Integer, String> roomNames = new HashMap<>();
+    private final Map<Integer, String> userNames = new HashMap<>();
+    private final Map<String, Integer> roomIds = new ConcurrentHashMap<>();
     
     // Client state
     private String username;
     private String currentRoom = "";
     private volatile boolean isConnected = false;
+    private volatile boolean isClosing = false; // The user quit, so do not reconnect
+    private volatile String sessionToken; // Lets the server restore our user and room after a reconnect
+    private volatile int reconnectAttempts = 0; // Failed attempts since the server last confirmed our session
     
     // Message types
     private static final String MSG_HISTORY = "HISTORY";
     private static final String HEARTBEAT = "PING";
+    private static final String HEARTBEAT_REPLY = "PONG";
+    private static final String TYPING_USERS = "[TYPING_USERS]";
+    private static final String HISTORY_RESET = "[HISTORY_RESET] ";
+    private static final String SESSION = "[SESSION] ";
+    private static final String SESSION_EXPIRED = "[SESSION_EXPIRED]";
+    private static final long TYPING_RESEND_INTERVAL = 2000; // Server forgets typists after 5 seconds
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8888;
     private static final long HEARTBEAT_INTERVAL = 30000; // 30 seconds
+    private static final int PROTOCOL_NEGOTIATION_TIMEOUT = 2000; // 2 seconds
+    private static final long RECONNECT_BASE_DELAY = 500; // Doubled after every failed attempt...
+    private static final long RECONNECT_MAX_DELAY = 30000; // ...up to 30 seconds
+    private static final int RENDER_FRAME_MILLIS = 16; // Draw queued messages about once per frame
+    private static final int EVENT_QUEUE_CAPACITY = 10000; // The reader waits when the UI is this far behind
+    private static final int MAX_EVENTS_PER_FRAME = 1000; // Keeps one frame short during a burst
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+    private static final int TRANSCRIPT_LIMIT = Math.max(100, Integer.getInteger("chatjar.transcript", 5000));
+    private static final int ROOM_CACHE_LIMIT = 500; // Messages kept per room to resume from
+    private static final String CACHE_DIRECTORY = System.getProperty("chatjar.cache"); // Keep room caches on disk when set
+    private static final long CACHE_SAVE_TIMEOUT = 2000; // How long closing waits for caches to be written
+    private static final boolean PREFER_BINARY_PROTOCOL = !"text".equals(System.getProperty("chatjar.protocol"));
     private volatile long lastHeartbeatTime = System.currentTimeMillis();
+    private long lastTypingSent = 0;
     private static final String[] AVAILABLE_ROOMS = {
         "Sun Squad", "Cake Squad", "Moon Crew", "Star Gang"
     };
     
-    // Online users set
-    private Set<String> onlineUsers = new HashSet<>();
+    // Users in the current room; EDT only
+    private final Set<String> onlineUsers = new LinkedHashSet<>();
+    
+    // Recent messages of each room we have been in, by sequence number; EDT only
+    private final Map<String, RoomCache> roomCaches = new HashMap<>();
+    private String joiningRoom; // Room waiting for its cache before we join it; EDT only
+    
+    // Reads and writes room caches on disk, one at a time and in order, off the EDT
+    private final ExecutorService cacheIo = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "room-cache-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private javax.swing.Timer createRenderTimer() {
+        javax.swing.Timer timer = new javax.swing.Timer(RENDER_FRAME_MILLIS, _ -> applyPendingEvents());
+        timer.setRepeats(false);
+        return timer;
+    }
     
     public ChatClientUI() {
         SwingUtilities.invokeLater(() -> {
@@ -129,6 +193,8 @@ public class ChatClientUI {
         frame.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
+                saveRoomCaches();
+                awaitCacheWrites();
                 disconnect();
                 System.exit(0);
             }
@@ -219,20 +285,22 @@ public class ChatClientUI {
         typingLabel.setFont(new Font("Segoe UI", Font.ITALIC, 12));
         headerPanel.add(typingLabel, BorderLayout.EAST);
         
-        // Chat area
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        chatArea.setContentType("text/plain");
-        chatArea.setBackground(Color.WHITE);
-        chatArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        
-        // Set up styled document for better formatting
-        StyledDocument doc = chatArea.getStyledDocument();
-        SimpleAttributeSet attrs = new SimpleAttributeSet();
-        StyleConstants.setLineSpacing(attrs, 0.3f);
-        doc.setParagraphAttributes(0, 0, attrs, false);
+        // Chat area: one list cell per message, so only visible messages are laid out
+        chatList = new JList<>(transcript);
+        chatList.setCellRenderer(new ChatEntryRenderer());
+        chatList.setSelectionModel(new NoSelectionModel());
+        chatList.setBackground(Color.WHITE);
+        chatList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        chatList.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                // Wrapped heights depend on the width; make the list measure its cells again
+                chatList.setFixedCellHeight(1);
+                chatList.setFixedCellHeight(-1);
+            }
+        });
         
-        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        JScrollPane chatScrollPane = new JScrollPane(chatList);
         chatScrollPane.setBorder(null);
         chatScrollPane.getViewport().setOpaque(false);
         chatScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
@@ -291,6 +359,22 @@ public class ChatClientUI {
         // Input field - send on Enter
         inputField.addActionListener(_ -> sendMessage());
         
+        // Input field - tell the room we are typing
+        inputField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                notifyTyping();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        
         // Room selector
         roomSelector.addActionListener(_ -> {
             String selectedRoom = (String) roomSelector.getSelectedItem();
@@ -316,12 +400,54 @@ public class ChatClientUI {
      */
     private void sendMessage() {
         String message = inputField.getText().trim();
-        if (!message.isEmpty() && out != null && isConnected) {
-            // Format: [Room] user: message
-            String formattedMessage = "[" + currentRoom + "] " + username + ": " + message;
-            out.println(formattedMessage);
+        Connection current = connection;
+        if (!message.isEmpty() && current != null && isConnected) {
+            Integer roomId = roomIds.get(currentRoom);
+            if (current.binaryProtocol && roomId != null) {
+                // The server knows the room by ID and the sender by connection
+                sendFrame(current, BinaryProtocol.send(roomId, message));
+            } else {
+                // Format: [Room] user: message
+                sendLine(current, "[" + currentRoom + "] " + username + ": " + message);
+            }
             inputField.setText("");
             inputField.requestFocusInWindow();
+            lastTypingSent = 0;
+        }
+    }
+    
+    /**
+     * Send a typing notification, at most once per resend interval while the user keeps typing
+     */
+    private void notifyTyping() {
+        long now = System.currentTimeMillis();
+        if (!isConnected || connection == null || currentRoom.isEmpty() || now - lastTypingSent < TYPING_RESEND_INTERVAL) {
+            return;
+        }
+        lastTypingSent = now;
+        sendLine("[TYPING] " + username + "@" + currentRoom);
+    }
+    
+    /**
+     * Show who else is typing in the current room
+     * @param typists comma-separated names from a [TYPING_USERS] update
+     */
+    private void showTypingUsers(String typists) {
+        java.util.List<String> others = new ArrayList<>();
+        for (String user : typists.split(",")) {
+            if (!user.isEmpty() && !user.equals(username)) {
+                others.add(user);
+            }
+        }
+        
+        if (others.isEmpty()) {
+            typingLabel.setText(" ");
+        } else if (others.size() == 1) {
+            typingLabel.setText("✍️ " + others.get(0) + " is typing...");
+        } else if (others.size() <= 3) {
+            typingLabel.setText("✍️ " + String.join(", ", others) + " are typing...");
+        } else {
+            typingLabel.setText("✍️ " + others.size() + " people are typing...");
         }
     }
 
@@ -334,6 +460,7 @@ public class ChatClientUI {
         }
 
         // Update current room
+        saveRoomCache(currentRoom);
         currentRoom = room;
 
         // Clear online users when changing rooms
@@ -342,11 +469,56 @@ public class ChatClientUI {
 
         // Update UI
         roomSelector.setSelectedItem(room);
-        chatArea.setText("");
+        clearChatArea();
+        typingLabel.setText(" ");
+        lastTypingSent = 0;
         
-        // Send join message to server if connected
-        if (isConnected && out != null) {
-            out.println("[JOIN_ROOM] " + username + " " + room);
+        enterRoom(room);
+    }
+    
+    /**
+     * Show what we already have of a room and join it on the server, which
+     * then only sends what came after. Waits for the room's cache to be
+     * loaded; if the user picks another room meanwhile, only that one is entered.
+     */
+    private void enterRoom(String room) {
+        joiningRoom = room;
+        withRoomCache(room, cache -> {
+            if (!room.equals(joiningRoom)) return;
+            joiningRoom = null;
+            
+            if (isBinaryProtocol()) {
+                java.util.List<ChatEntry> cached = cache.entries();
+                if (!cached.isEmpty()) {
+                    transcript.addAll(cached);
+                    chatList.ensureIndexIsVisible(transcript.getSize() - 1);
+                }
+            }
+            
+            // Send join message to server if connected
+            if (isConnected && connection != null) {
+                sendJoin(room);
+            }
+        });
+    }
+    
+    /**
+     * Join a room on the server. Over the binary protocol, where messages
+     * carry sequence numbers, ask only for those after the last one cached.
+     */
+    private void sendJoin(String room) {
+        Connection current = connection;
+        if (current == null) return;
+        sendResumePoint(current, room);
+        sendLine(current, "[JOIN_ROOM] " + username + " " + room);
+    }
+    
+    private void sendResumePoint(Connection current, String room) {
+        if (current.binaryProtocol) {
+            long lastSeq = roomCache(room).lastSeq();
+            if (lastSeq >= 0) {
+                sendLine(current, "[RESUME] " + lastSeq);
+            }
         }
     }
     
@@ -376,27 +548,10 @@ public class ChatClientUI {
      */
     private void connectToServer() {
         try {
-            socket = new Socket();
-            // Set a read timeout to detect dead connections
-            socket.setSoTimeout(60000); // 60 seconds
-            socket.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT), 10000); // 10s connection timeout
-            
-            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            isConnected = true;
-            lastHeartbeatTime = System.currentTimeMillis();
-            
-            // Start message listener thread
-            Thread messageListener = new Thread(this::listenForMessages);
-            messageListener.setDaemon(true);
-            messageListener.start();
-            
-            // Start heartbeat thread
-            startHeartbeat();
+            openConnection();
             
             // Join the selected room
-            out.println("[JOIN_ROOM] " + username + " " + currentRoom);
+            enterRoom(currentRoom);
             
             appendMessage("✅ Connected to ChatJar server!", false, true);
             
@@ -414,130 +569,341 @@ public class ChatClientUI {
     }
     
     /**
-     * Listen for messages from server
+     * Open a connection, negotiate the protocol and start its listener and
+     * heartbeat. The previous connection's listener must have finished.
+     */
+    private void openConnection() throws IOException {
+        Socket socket = new Socket();
+        // Set a read timeout to detect dead connections
+        socket.setSoTimeout(60000); // 60 seconds
+        socket.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT), 10000); // 10s connection timeout
+        
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        
+        // IDs are defined afresh on every connection
+        roomNames.clear();
+        userNames.clear();
+        roomIds.clear();
+        boolean binary = PREFER_BINARY_PROTOCOL && negotiateBinaryProtocol(socket, out, in);
+        
+        // Publish the connection in one step, so no thread sees a mix of old and new streams
+        Connection current = new Connection(socket, out, in, binary);
+        connection = current;
+        isConnected = true;
+        lastHeartbeatTime = System.currentTimeMillis();
+        
+        // Start message listener thread
+        Thread messageListener = new Thread(() -> listenForMessages(current));
+        messageListener.setDaemon(true);
+        messageListener.start();
+        
+        // Start heartbeat thread
+        startHeartbeat(current);
+    }
+    
+    /**
+     * Reconnect in the background after the connection was lost. Each
+     * attempt waits a random time between zero and an exponentially growing
+     * cap ("full jitter"), so clients dropped together, e.g. by a server
+     * restart, come back spread out instead of all at once.
      */
-    private void listenForMessages() {
+    private void scheduleReconnect() {
+        Thread reconnector = new Thread(() -> {
+            while (!isClosing) {
+                long cap = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << Math.min(reconnectAttempts, 16));
+                long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+                reconnectAttempts++;
+                SwingUtilities.invokeLater(() -> typingLabel.setText("🔄 Reconnecting..."));
+                try {
+                    Thread.sleep(delay);
+                    if (isClosing) return;
+                    openConnection();
+                    SwingUtilities.invokeLater(this::resumeSession);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Reconnect failed: " + e.getMessage());
+                }
+            }
+        }, "reconnect");
+        reconnector.setDaemon(true);
+        reconnector.start();
+    }
+    
+    /**
+     * Pick up where we left off on a new connection: resume the session if
+     * the server gave us one, otherwise join the room again. Runs on the EDT.
+     */
+    private void resumeSession() {
+        Connection current = connection;
+        if (current == null) return;
+        if (!current.binaryProtocol) {
+            // Without sequence numbers the server replays the room in full
+            clearChatArea();
+        }
+        appendMessage("✅ Reconnected to ChatJar server!", false, true);
+        updateConnectionStatus(true);
+        
+        String token = sessionToken;
+        if (token != null) {
+            sendResumePoint(current, currentRoom);
+            sendLine(current, SESSION + token);
+        } else if (joiningRoom == null) {
+            // Otherwise enterRoom joins once the room's cache is loaded
+            sendJoin(currentRoom);
+        }
+    }
+    
+    /**
+     * Offer the binary protocol and wait briefly for the server to accept it.
+     * Servers that do not know it ignore the offer, and we stay on text lines.
+     * @throws IOException also if the server turned the connection away, e.g. over its rate limit
+     */
+    private static boolean negotiateBinaryProtocol(Socket socket, PrintWriter out, BufferedReader in) throws IOException {
+        out.println(BinaryProtocol.HELLO);
+        socket.setSoTimeout(PROTOCOL_NEGOTIATION_TIMEOUT);
         try {
-            String message;
-            while (isConnected && (message = in.readLine()) != null) {
+            String reply = in.readLine();
+            if (reply == null || reply.startsWith("[ERROR]")) {
+                throw new IOException(reply == null ? "Connection closed by server" : reply.substring("[ERROR]".length()).trim());
+            }
+            // The server sends nothing else until we join, so the line reader
+            // holds no frame bytes and frames can be read from the socket directly
+            return BinaryProtocol.ACK.equals(reply);
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(60000);
+        }
+    }
+    
+    private boolean isBinaryProtocol() {
+        Connection current = connection;
+        return current != null && current.binaryProtocol;
+    }
+    
+    /**
+     * Send one protocol line on the current connection, if there is one
+     */
+    private void sendLine(String line) {
+        Connection current = connection;
+        if (current != null) {
+            sendLine(current, line);
+        }
+    }
+    
+    /**
+     * Send one protocol line, framed if the binary protocol is in use
+     */
+    private static void sendLine(Connection connection, String line) {
+        if (connection.binaryProtocol) {
+            sendFrame(connection, BinaryProtocol.text(line));
+        } else {
+            connection.out.println(line);
+        }
+    }
+    
+    private static void sendFrame(Connection connection, ByteBuffer frame) {
+        synchronized (connection.frameOut) {
+            try {
+                BinaryProtocol.write(connection.frameOut, frame);
+                connection.frameOut.flush();
+            } catch (IOException e) {
+                System.err.println("Error sending to server: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Read until the next event for the UI. Binary CHAT frames become
+     * message events directly, keeping their sequence numbers; text lines
+     * and TEXT frames go through decode.
+     * @return null at end of stream
+     */
+    private ServerEvent readEvent(Connection connection) throws IOException {
+        while (true) {
+            if (!connection.binaryProtocol) {
+                String line = connection.in.readLine();
+                if (line == null) return null;
                 lastHeartbeatTime = System.currentTimeMillis();
-                if (message.equals(HEARTBEAT)) {
-                    continue; // Skip heartbeat messages
+                ServerEvent event = decode(line);
+                if (event != null) return event;
+                continue;
+            }
+            
+            ByteBuffer frame = BinaryProtocol.readFrame(connection.frameIn);
+            if (frame == null) return null;
+            lastHeartbeatTime = System.currentTimeMillis();
+            int opcode = (int) BinaryProtocol.readVarint(frame);
+            switch (opcode) {
+                case BinaryProtocol.TEXT: {
+                    ServerEvent event = decode(BinaryProtocol.readString(frame));
+                    if (event != null) return event;
+                    break;
                 }
-                processServerMessage(message);
+                case BinaryProtocol.ROOM: {
+                    int id = (int) BinaryProtocol.readVarint(frame);
+                    String name = BinaryProtocol.readString(frame);
+                    // IDs are reused, so the room that had this one before may need forgetting
+                    String previous = roomNames.put(id, name);
+                    if (previous != null && !previous.equals(name)) roomIds.remove(previous, id);
+                    roomIds.put(name, id);
+                    break;
+                }
+                case BinaryProtocol.USER: {
+                    int id = (int) BinaryProtocol.readVarint(frame);
+                    userNames.put(id, BinaryProtocol.readString(frame));
+                    break;
+                }
+                case BinaryProtocol.CHAT: {
+                    String room = roomNames.getOrDefault((int) BinaryProtocol.readVarint(frame), "?");
+                    String user = userNames.getOrDefault((int) BinaryProtocol.readVarint(frame), "?");
+                    long seq = BinaryProtocol.readVarint(frame) - 1; // 0 on the wire means none
+                    String text = BinaryProtocol.readString(frame);
+                    ChatEntry entry = new ChatEntry(user + ": " + text, user.equals(username), false,
+                        LocalTime.now().format(TIME_FORMAT), seq);
+                    return ServerEvent.message(room, entry, false);
+                }
+                default:
+                    // Unknown opcodes from a newer server are skipped
+                    break;
             }
+        }
+    }
+    
+    /**
+     * Listen for messages from server on one connection
+     */
+    private void listenForMessages(Connection connection) {
+        try {
+            ServerEvent event;
+            while (isConnected && (event = readEvent(connection)) != null) {
+                // Blocks while the UI is far behind, which slows the server down through TCP
+                pendingEvents.put(event);
+                scheduleRender();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (SocketTimeoutException e) {
             System.err.println("Socket read timeout: " + e.getMessage());
         } catch (IOException e) {
             System.err.println("Error reading from server: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Malformed frame from server: " + e.getMessage());
+            dropConnection(connection.socket);
         } finally {
-            if (isConnected) {
-                SwingUtilities.invokeLater(() -> {
-                    appendMessage("⚠️ Lost connection to server.", false, true);
-                    updateConnectionStatus(false);
-                });
-                isConnected = false;
+            isConnected = false;
+            if (!isClosing) {
+                appendMessage("⚠️ Lost connection to server.", false, true);
                 updateConnectionStatus(false);
+                scheduleReconnect();
             }
         }
     }
     
     /**
-     * Process incoming messages from server
+     * Turn a line from the server into an event for the UI. Runs on the
+     * reader thread and touches no UI state; filtering by room is left to
+     * the EDT, which owns the current room.
+     * @return the event, or null for lines the UI ignores
      */
-    private void processServerMessage(String message) {
-        if (message == null || message.trim().isEmpty()) return;
+    private ServerEvent decode(String message) {
+        if (message == null || message.trim().isEmpty()) return null;
+        
+        // Heartbeats only count as activity, which the reader already noted
+        if (message.equals(HEARTBEAT) || message.equals(HEARTBEAT_REPLY)) return null;
+        
+        // Our session; hearing it also means the connection works, so backing off starts over
+        if (message.startsWith(SESSION)) {
+            sessionToken = message.substring(SESSION.length()).trim();
+            reconnectAttempts = 0;
+            return null;
+        }
+        if (message.equals(SESSION_EXPIRED)) {
+            return ServerEvent.sessionExpired();
+        }
+        
+        // The server no longer has the history our cache came from
+        if (message.startsWith(HISTORY_RESET)) {
+            return ServerEvent.historyReset(message.substring(HISTORY_RESET.length()).trim());
+        }
         
         // Handle user list updates
         if (message.startsWith("[USER_LIST]")) {
-            String[] users = message.substring("[USER_LIST]".length()).split(",");
-            onlineUsers.clear();
-            for (String user : users) {
-                if (!user.trim().isEmpty()) {
-                    onlineUsers.add(user.trim());
-                }
-            }
-            SwingUtilities.invokeLater(this::updateUsersList);
-            return;
+            return ServerEvent.users(splitNames(message.substring("[USER_LIST]".length()), ","));
         }
         
-        try {
-            // Check if it's a user list update
-            if (message.startsWith("[USERS]")) {
-                // Format: [USERS] user1 user2 user3
-                String[] users = message.substring(7).trim().split("\\s+");
-                onlineUsers.clear();
-                for (String user : users) {
-                    if (!user.trim().isEmpty()) {
-                        onlineUsers.add(user.trim());
-                    }
+        // Typing updates only ever come from the current room
+        if (message.startsWith(TYPING_USERS)) {
+            return ServerEvent.typing(message.substring(TYPING_USERS.length()));
+        }
+        
+        // Format: [USERS] user1 user2 user3
+        if (message.startsWith("[USERS]")) {
+            return ServerEvent.users(splitNames(message.substring("[USERS]".length()), "\\s+"));
+        }
+        
+        String timestamp = LocalTime.now().format(TIME_FORMAT);
+        
+        // Handle chat history messages (they start with [HISTORY])
+        if (message.startsWith("[" + MSG_HISTORY + "]")) {
+            String text = message.substring(MSG_HISTORY.length() + 2).trim();
+            return text.isEmpty() ? null : ServerEvent.message(null, new ChatEntry(text, false, true, timestamp), false);
+        }
+        
+        // Handle regular messages in format: [Room] user: message
+        if (message.startsWith("[")) {
+            int endBracket = message.indexOf("]");
+            if (endBracket > 0) {
+                String room = message.substring(1, endBracket).trim();
+                String rest = message.substring(endBracket + 1).trim();
+                if (rest.isEmpty()) return null;
+                
+                // System messages (join/leave) start with '*' and prompt a fresh user list
+                if (rest.startsWith("*")) {
+                    return ServerEvent.message(room, new ChatEntry(rest, false, true, timestamp), true);
                 }
-                updateUsersList();
-                return;
-            }
-            
-            // Handle chat history messages (they start with [HISTORY])
-            if (message.startsWith("[" + MSG_HISTORY + "]")) {
-                message = message.substring(MSG_HISTORY.length() + 2).trim();
-                appendMessage(message, false, true);
-                return;
+                return ServerEvent.message(room, new ChatEntry(rest, isMessageFromMe(rest), false, timestamp), false);
             }
-            
-            // Handle regular messages in format: [Room] user: message
-            if (message.startsWith("[")) {
-                int endBracket = message.indexOf("]");
-                if (endBracket > 0) {
-                    String room = message.substring(1, endBracket).trim();
-                    String rest = message.substring(endBracket + 1).trim();
-                    
-                    // Skip if not in the current room
-                    if (!room.equals(currentRoom)) return;
-                    
-                    // Check for system messages (join/leave)
-                    if (rest.startsWith("*")) {
-                        // System message (user join/leave)
-                        appendMessage(rest, false, true);
-                        
-                        // Request updated user list
-                        if (out != null) {
-                            out.println("[GET_USERS]");
-                        }
-                    } else {
-                        // Regular message
-                        appendMessage(rest, isMessageFromMe(rest), false);
-                    }
-                }
+        }
+        return null;
+    }
+    
+    private static java.util.List<String> splitNames(String names, String separator) {
+        java.util.List<String> users = new ArrayList<>();
+        for (String user : names.trim().split(separator)) {
+            if (!user.trim().isEmpty()) {
+                users.add(user.trim());
             }
-        } catch (Exception e) {
-            System.err.println("Error processing server message: " + e.getMessage());
-            e.printStackTrace();
         }
+        return users;
     }
     
     /**
      * Start heartbeat mechanism
      */
-    private void startHeartbeat() {
+    private void startHeartbeat(Connection connection) {
         Thread heartbeatThread = new Thread(() -> {
-            while (isConnected) {
+            while (isConnected && !connection.socket.isClosed()) {
                 try {
                     Thread.sleep(HEARTBEAT_INTERVAL);
                     long timeSinceLastHeartbeat = System.currentTimeMillis() - lastHeartbeatTime;
                     if (timeSinceLastHeartbeat > HEARTBEAT_INTERVAL * 2) {
                         // No response from server for too long, consider connection dead
-                        System.err.println("No heartbeat response from server, disconnecting...");
-                        disconnect();
+                        System.err.println("No heartbeat response from server, reconnecting...");
+                        dropConnection(connection.socket);
                         break;
                     }
-                    if (out != null) {
-                        out.println(HEARTBEAT);
-                    }
+                    sendLine(connection, HEARTBEAT);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
                 } catch (Exception e) {
                     System.err.println("Error sending heartbeat: " + e.getMessage());
-                    disconnect();
+                    dropConnection(connection.socket);
                     break;
                 }
             }
@@ -547,26 +913,40 @@ public class ChatClientUI {
     }
     
     /**
-     * Disconnect from server
+     * Close a dead connection; its listener notices and starts reconnecting
+     */
+    private void dropConnection(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Disconnect from server for good, e.g. when the window closes
      */
     private void disconnect() {
+        isClosing = true;
         if (!isConnected) return;
         isConnected = false;
+        Connection current = connection;
+        if (current == null) return;
         try {
-            if (out != null) {
-                out.println("[DISCONNECT]");
-                out.close();
-            }
-            if (in != null) in.close();
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            sendLine(current, "[DISCONNECT]");
+            current.out.close();
+            current.in.close();
+            if (!current.socket.isClosed()) {
+                current.socket.close();
             }
         } catch (IOException e) {
             System.err.println("Error disconnecting: " + e.getMessage());
         } finally {
             // Clear online users when disconnecting
-            onlineUsers.clear();
-            updateUsersList();
+            SwingUtilities.invokeLater(() -> {
+                onlineUsers.clear();
+                updateUsersList();
+            });
             updateConnectionStatus(false);
         }
     }
@@ -630,89 +1010,579 @@ public class ChatClientUI {
     }
     
     /**
-     * Append message to chat area with proper formatting
+     * Queue a local status line for the chat area. May be called from any thread.
      */
     private void appendMessage(String message, boolean isFromMe, boolean isSystemMessage) {
         if (message == null || message.trim().isEmpty()) return;
         
-        try {
-            StyledDocument doc = chatArea.getStyledDocument();
-            
-            // Create styles
-            Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
-            
-            Style senderStyle = doc.addStyle("sender", defaultStyle);
-            StyleConstants.setBold(senderStyle, true);
-            StyleConstants.setFontSize(senderStyle, 13);
-            
-            Style messageStyle = doc.addStyle("message", defaultStyle);
-            StyleConstants.setFontSize(messageStyle, 12);
-            
-            Style timeStyle = doc.addStyle("time", defaultStyle);
-            StyleConstants.setFontSize(timeStyle, 10);
-            StyleConstants.setForeground(timeStyle, Color.GRAY);
+        ChatEntry entry = new ChatEntry(message, isFromMe, isSystemMessage, LocalTime.now().format(TIME_FORMAT));
+        if (pendingEvents.offer(ServerEvent.message(null, entry, false))) {
+            scheduleRender();
+        }
+    }
+    
+    /**
+     * Make sure queued events are applied on the next frame
+     */
+    private void scheduleRender() {
+        if (renderScheduled.compareAndSet(false, true)) {
+            renderTimer.restart();
+        }
+    }
+    
+    /**
+     * Apply queued events as one batch. Runs on the EDT. Within a batch only
+     * the last user list and typing update matter, and new messages reach the
+     * transcript together with one scroll at the end.
+     */
+    private void applyPendingEvents() {
+        renderScheduled.set(false);
+        
+        java.util.List<ServerEvent> events = new ArrayList<>();
+        pendingEvents.drainTo(events, MAX_EVENTS_PER_FRAME);
+        if (!pendingEvents.isEmpty()) {
+            // Leave the rest for the next frame so the UI stays responsive
+            scheduleRender();
+        }
+        
+        java.util.List<ChatEntry> messages = new ArrayList<>();
+        java.util.List<String> users = null;
+        String typists = null;
+        boolean refreshUsers = false;
+        for (ServerEvent event : events) {
+            switch (event.kind) {
+                case USERS:
+                    users = event.users;
+                    break;
+                case TYPING:
+                    typists = event.typists;
+                    break;
+                case MESSAGE:
+                    // Skip if not in the current room
+                    if (event.room != null && !event.room.equals(currentRoom)) break;
+                    // Skip messages already shown from the cache
+                    if (event.entry.seq >= 0 && !roomCache(event.room).add(event.entry)) break;
+                    messages.add(event.entry);
+                    refreshUsers |= event.refreshUsers;
+                    break;
+                case SESSION_EXPIRED:
+                    // The server forgot us, e.g. it restarted; join as usual
+                    sessionToken = null;
+                    if (isConnected && joiningRoom == null) sendJoin(currentRoom);
+                    break;
+                case HISTORY_RESET:
+                    roomCache(event.room).clear();
+                    if (event.room.equals(currentRoom)) {
+                        messages.clear();
+                        clearChatArea();
+                    }
+                    break;
+            }
+        }
+        
+        if (users != null) {
+            onlineUsers.clear();
+            onlineUsers.addAll(users);
+            updateUsersList();
+        }
+        if (typists != null) {
+            showTypingUsers(typists);
+        }
+        if (!messages.isEmpty()) {
+            transcript.addAll(messages);
             
-            Style systemStyle = doc.addStyle("system", defaultStyle);
-            StyleConstants.setFontSize(systemStyle, 11);
-            StyleConstants.setForeground(systemStyle, new Color(102, 102, 102));
-            StyleConstants.setItalic(systemStyle, true);
+            // Auto-scroll to bottom
+            chatList.ensureIndexIsVisible(transcript.getSize() - 1);
+        }
+        if (refreshUsers && isConnected && connection != null) {
+            // Request updated user list
+            sendLine("[GET_USERS]");
+        }
+    }
+    
+    /**
+     * Discard the transcript, e.g. when leaving a room. Runs on the EDT; queued
+     * messages of the old room are dropped when they are applied.
+     */
+    private void clearChatArea() {
+        transcript.clear();
+    }
+    
+    /**
+     * The cache of a room as it is in memory. Runs on the EDT.
+     */
+    private RoomCache roomCache(String room) {
+        return roomCaches.computeIfAbsent(room, _ -> new RoomCache(ROOM_CACHE_LIMIT));
+    }
+    
+    /**
+     * Run an action on the EDT with a room's cache, first reading it from
+     * disk on the cache thread if caches are kept there and it is not in memory yet
+     */
+    private void withRoomCache(String room, Consumer<RoomCache> action) {
+        RoomCache cache = roomCaches.get(room);
+        Path file = cacheFile(room);
+        if (cache != null || file == null) {
+            action.accept(roomCache(room));
+            return;
+        }
+        
+        cacheIo.execute(() -> {
+            RoomCache loaded = loadRoomCache(room, file);
+            // Keep a cache that was started while this one was read
+            SwingUtilities.invokeLater(() -> action.accept(roomCaches.computeIfAbsent(room, _ -> loaded)));
+        });
+    }
+    
+    /**
+     * Read a room's cache from disk. Runs on the cache thread.
+     */
+    private RoomCache loadRoomCache(String room, Path file) {
+        RoomCache cache = new RoomCache(ROOM_CACHE_LIMIT);
+        if (!Files.exists(file)) return cache;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) continue;
+                cache.add(new ChatEntry(fields[2] + ": " + fields[3], fields[2].equals(username), false,
+                    fields[1], Long.parseLong(fields[0])));
+            }
+            cache.markSaved();
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("⚠️ Could not read cache of " + room + ": " + e.getMessage());
+            cache.clear();
+        }
+        return cache;
+    }
+    
+    /**
+     * Where a room's cache is kept: one file per user and room, or null
+     */
+    private Path cacheFile(String room) {
+        if (CACHE_DIRECTORY == null || username == null) return null;
+        return Paths.get(CACHE_DIRECTORY, fileName(username), fileName(room) + ".txt");
+    }
+    
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    
+    /**
+     * Write a room's cache to disk if it changed. Takes a copy on the EDT
+     * and leaves the writing to the cache thread.
+     */
+    private void saveRoomCache(String room) {
+        RoomCache cache = roomCaches.get(room);
+        Path file = cacheFile(room);
+        if (cache == null || file == null || !cache.isDirty()) return;
+        
+        java.util.List<String> lines = new ArrayList<>();
+        for (ChatEntry entry : cache.entries()) {
+            lines.add(entry.seq + "\t" + entry.timestamp + "\t" + entry.sender + "\t" + entry.text.replace('\t', ' '));
+        }
+        cache.markSaved();
+        cacheIo.execute(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(file, lines, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("⚠️ Could not save cache of " + room + ": " + e.getMessage());
+            }
+        });
+    }
+    
+    private void saveRoomCaches() {
+        for (String room : roomCaches.keySet()) {
+            saveRoomCache(room);
+        }
+    }
+    
+    /**
+     * Let queued cache writes finish before the client exits
+     */
+    private void awaitCacheWrites() {
+        cacheIo.shutdown();
+        try {
+            if (!cacheIo.awaitTermination(CACHE_SAVE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.err.println("⚠️ Timed out saving room caches");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * One connection to the server and the protocol chosen on it. Never
+     * changes once published, so a thread that read the connection field
+     * uses one socket's streams throughout.
+     */
+    private static final class Connection {
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+        final boolean binaryProtocol;
+        final InputStream frameIn; // Binary protocol only
+        final OutputStream frameOut;
+        
+        Connection(Socket socket, PrintWriter out, BufferedReader in, boolean binaryProtocol) throws IOException {
+            this.socket = socket;
+            this.out = out;
+            this.in = in;
+            this.binaryProtocol = binaryProtocol;
+            this.frameIn = binaryProtocol ? new BufferedInputStream(socket.getInputStream()) : null;
+            this.frameOut = binaryProtocol ? new BufferedOutputStream(socket.getOutputStream()) : null;
+        }
+    }
+    
+    /**
+     * Something the server told us, decoded off the EDT and applied on it
+     */
+    private static final class ServerEvent {
+        enum Kind { USERS, TYPING, MESSAGE, HISTORY_RESET, SESSION_EXPIRED }
+        
+        final Kind kind;
+        final java.util.List<String> users;
+        final String typists;
+        final String room; // null for messages shown in any room
+        final ChatEntry entry;
+        final boolean refreshUsers;
+        
+        private ServerEvent(Kind kind, java.util.List<String> users, String typists,
+                String room, ChatEntry entry, boolean refreshUsers) {
+            this.kind = kind;
+            this.users = users;
+            this.typists = typists;
+            this.room = room;
+            this.entry = entry;
+            this.refreshUsers = refreshUsers;
+        }
+        
+        static ServerEvent users(java.util.List<String> users) {
+            return new ServerEvent(Kind.USERS, Collections.unmodifiableList(users), null, null, null, false);
+        }
+        
+        static ServerEvent typing(String typists) {
+            return new ServerEvent(Kind.TYPING, null, typists, null, null, false);
+        }
+        
+        /**
+         * @param refreshUsers ask the server for the room's users once this is shown
+         */
+        static ServerEvent message(String room, ChatEntry entry, boolean refreshUsers) {
+            return new ServerEvent(Kind.MESSAGE, null, null, room, entry, refreshUsers);
+        }
+        
+        static ServerEvent historyReset(String room) {
+            return new ServerEvent(Kind.HISTORY_RESET, null, null, room, null, false);
+        }
+        
+        static ServerEvent sessionExpired() {
+            return new ServerEvent(Kind.SESSION_EXPIRED, null, null, null, null, false);
+        }
+    }
+    
+    /**
+     * One message of the transcript, split into sender and text when it arrives
+     */
+    private static final class ChatEntry {
+        final String sender;
+        final String text;
+        final boolean isFromMe;
+        final boolean isSystemMessage;
+        final String timestamp;
+        final long seq; // Position in the room's history, or -1 if unknown
+        
+        // Layout at the width it was computed for, see ChatEntryRenderer; EDT only
+        int wrappedWidth = -1;
+        String[] lines;
+        int bubbleWidth;
+        int height;
+        
+        ChatEntry(String message, boolean isFromMe, boolean isSystemMessage, String timestamp) {
+            this(message, isFromMe, isSystemMessage, timestamp, -1);
+        }
+        
+        ChatEntry(String message, boolean isFromMe, boolean isSystemMessage, String timestamp, long seq) {
+            int colonIndex = isSystemMessage ? -1 : message.indexOf(':');
+            this.sender = colonIndex >= 0 ? message.substring(0, colonIndex).trim() : "";
+            this.text = colonIndex >= 0 ? message.substring(colonIndex + 1).trim() : message;
+            this.isFromMe = isFromMe;
+            this.isSystemMessage = isSystemMessage;
+            this.timestamp = timestamp;
+            this.seq = seq;
+        }
+    }
+    
+    /**
+     * The latest messages of one room with their sequence numbers. Only runs
+     * of consecutive messages are kept, so everything up to the last sequence
+     * number is either cached or older than the cache.
+     */
+    private static final class RoomCache {
+        private final int limit;
+        private final ArrayDeque<ChatEntry> entries = new ArrayDeque<>();
+        private long lastSeq = -1;
+        private boolean dirty = false;
+        
+        RoomCache(int limit) {
+            this.limit = limit;
+        }
+        
+        /**
+         * @return false if the message is already cached
+         */
+        boolean add(ChatEntry entry) {
+            if (entry.seq <= lastSeq) return false;
+            if (entry.seq != lastSeq + 1) {
+                // We missed messages in between, so what we had is no longer a run
+                entries.clear();
+            }
+            entries.addLast(entry);
+            if (entries.size() > limit) {
+                entries.removeFirst();
+            }
+            lastSeq = entry.seq;
+            dirty = true;
+            return true;
+        }
+        
+        long lastSeq() {
+            return lastSeq;
+        }
+        
+        java.util.List<ChatEntry> entries() {
+            return new ArrayList<>(entries);
+        }
+        
+        void clear() {
+            entries.clear();
+            lastSeq = -1;
+            dirty = true;
+        }
+        
+        boolean isDirty() {
+            return dirty;
+        }
+        
+        void markSaved() {
+            dirty = false;
+        }
+    }
+    
+    /**
+     * The retained window of the transcript. Once it grows past its limit the
+     * oldest tenth is dropped in one go, so evictions are rare and cheap.
+     */
+    private static final class TranscriptModel extends AbstractListModel<ChatEntry> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int limit;
+        private final ArrayList<ChatEntry> entries = new ArrayList<>();
+        
+        TranscriptModel(int limit) {
+            this.limit = limit;
+        }
+        
+        @Override
+        public int getSize() {
+            return entries.size();
+        }
+        
+        @Override
+        public ChatEntry getElementAt(int index) {
+            return entries.get(index);
+        }
+        
+        void addAll(java.util.List<ChatEntry> batch) {
+            int first = entries.size();
+            entries.addAll(batch);
+            fireIntervalAdded(this, first, entries.size() - 1);
             
-            // Format timestamp
-            String timestamp = new SimpleDateFormat("HH:mm").format(new Date());
+            if (entries.size() > limit) {
+                int evicted = entries.size() - limit + limit / 10;
+                entries.subList(0, evicted).clear();
+                fireIntervalRemoved(this, 0, evicted - 1);
+            }
+        }
+        
+        void clear() {
+            int size = entries.size();
+            if (size == 0) return;
+            entries.clear();
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+    
+    /**
+     * Draws one chat message as a bubble: sender, wrapped text and time,
+     * right-aligned for our own messages. JList asks for every cell's size
+     * whenever the list changes, so each entry keeps its wrapped lines and
+     * height for the width they were computed at, and only new entries or a
+     * resized list cost any text measuring.
+     */
+    private static final class ChatEntryRenderer extends JComponent implements ListCellRenderer<ChatEntry> {
+        private static final long serialVersionUID = 1L;
+        private static final Color MY_BACKGROUND = new Color(227, 242, 253);
+        private static final Color OTHER_BACKGROUND = new Color(245, 245, 245);
+        private static final Color MY_SENDER = new Color(0, 120, 212);
+        private static final Color SYSTEM_TEXT = new Color(102, 102, 102);
+        private static final Font SENDER_FONT = new Font("Segoe UI", Font.BOLD, 13);
+        private static final Font MESSAGE_FONT = new Font("Segoe UI", Font.PLAIN, 12);
+        private static final Font SYSTEM_FONT = new Font("Segoe UI", Font.ITALIC, 11);
+        private static final Font TIME_FONT = new Font("Segoe UI", Font.PLAIN, 10);
+        private static final int PADDING = 8;
+        private static final int GAP = 10; // Space below each bubble
+        
+        private transient ChatEntry entry;
+        private int width;
+        
+        @Override
+        public Component getListCellRendererComponent(JList<? extends ChatEntry> list, ChatEntry value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            Insets insets = list.getInsets();
+            width = Math.max(1, list.getWidth() - insets.left - insets.right);
+            entry = value;
+            if (entry.wrappedWidth != width) {
+                measure(entry, width);
+            }
+            return this;
+        }
+        
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(width, entry != null ? entry.height : 0);
+        }
+        
+        private static Font textFont(ChatEntry entry) {
+            return entry.isSystemMessage ? SYSTEM_FONT : MESSAGE_FONT;
+        }
+        
+        private String senderText(ChatEntry entry) {
+            return entry.isFromMe ? "You" : entry.sender;
+        }
+        
+        /**
+         * Wrap the entry's text to the width and work out the bubble's size
+         */
+        private void measure(ChatEntry entry, int width) {
+            FontMetrics text = getFontMetrics(textFont(entry));
+            FontMetrics time = getFontMetrics(TIME_FONT);
+            int textWidth = Math.max(1, width - 2 * PADDING);
             
-            if (isSystemMessage) {
-                // System message formatting
-                doc.insertString(doc.getLength(), message + "\n", systemStyle);
-                doc.insertString(doc.getLength(), timestamp + "\n\n", timeStyle);
-            } else {
-                // Parse sender and message
-                String sender = "";
-                String messageText = message;
-                
-                if (message.contains(":")) {
-                    int colonIndex = message.indexOf(":");
-                    sender = message.substring(0, colonIndex).trim();
-                    messageText = message.substring(colonIndex + 1).trim();
+            entry.lines = wrap(entry.text, text, textWidth);
+            int contentWidth = time.stringWidth(entry.timestamp);
+            int height = 2 * PADDING + entry.lines.length * text.getHeight() + time.getHeight();
+            for (String line : entry.lines) {
+                contentWidth = Math.max(contentWidth, text.stringWidth(line));
+            }
+            if (!entry.sender.isEmpty()) {
+                FontMetrics sender = getFontMetrics(SENDER_FONT);
+                contentWidth = Math.max(contentWidth, sender.stringWidth(senderText(entry)));
+                height += sender.getHeight();
+            }
+            entry.bubbleWidth = Math.min(width, contentWidth + 2 * PADDING);
+            entry.height = height + GAP;
+            entry.wrappedWidth = width;
+        }
+        
+        /**
+         * Break text into lines no wider than the width, at spaces where possible
+         */
+        private static String[] wrap(String text, FontMetrics metrics, int width) {
+            java.util.List<String> lines = new ArrayList<>();
+            for (String paragraph : text.split("\n", -1)) {
+                StringBuilder line = new StringBuilder();
+                for (String word : paragraph.split(" ", -1)) {
+                    String candidate = line.length() == 0 ? word : line + " " + word;
+                    if (metrics.stringWidth(candidate) <= width) {
+                        line.setLength(0);
+                        line.append(candidate);
+                        continue;
+                    }
+                    if (line.length() > 0) {
+                        lines.add(line.toString());
+                        line.setLength(0);
+                    }
+                    // A word wider than the bubble is split wherever it has to be
+                    int start = 0;
+                    for (int end = 1; end <= word.length(); end++) {
+                        if (metrics.stringWidth(word.substring(start, end)) > width && end - 1 > start) {
+                            lines.add(word.substring(start, end - 1));
+                            start = end - 1;
+                        }
+                    }
+                    line.append(word, start, word.length());
                 }
+                lines.add(line.toString());
+            }
+            return lines.toArray(new String[0]);
+        }
+        
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            if (entry == null) return;
+            Graphics2D g = (Graphics2D) graphics.create();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, getWidth(), getHeight());
                 
-                // Set message alignment and background color
-                SimpleAttributeSet alignment = new SimpleAttributeSet();
-                int align = isFromMe ? StyleConstants.ALIGN_RIGHT : StyleConstants.ALIGN_LEFT;
-                StyleConstants.setAlignment(alignment, align);
-                
-                // Set background color for messages
-                Color bgColor = isFromMe ? new Color(227, 242, 253) : 
-                              sender.isEmpty() ? Color.WHITE : new Color(245, 245, 245);
-                StyleConstants.setBackground(messageStyle, bgColor);
-                
-                // Apply alignment to the paragraph
-                doc.setParagraphAttributes(doc.getLength(), 1, alignment, false);
+                boolean hasSender = !entry.sender.isEmpty();
+                int left = entry.isFromMe ? width - entry.bubbleWidth : 0;
+                Color background = entry.isFromMe ? MY_BACKGROUND
+                    : hasSender && !entry.isSystemMessage ? OTHER_BACKGROUND : Color.WHITE;
+                g.setColor(background);
+                g.fillRoundRect(left, 0, entry.bubbleWidth, entry.height - GAP, 10, 10);
                 
-                // Insert sender name (if not empty)
-                if (!sender.isEmpty()) {
-                    String displaySender = isFromMe ? "You" : sender;
-                    StyleConstants.setForeground(senderStyle, isFromMe ? new Color(0, 120, 212) : Color.BLACK);
-                    doc.insertString(doc.getLength(), displaySender + "\n", senderStyle);
+                int y = PADDING;
+                if (hasSender) {
+                    g.setFont(SENDER_FONT);
+                    g.setColor(entry.isFromMe ? MY_SENDER : Color.BLACK);
+                    y = drawLine(g, senderText(entry), left, y);
                 }
-                
-                // Insert message text
-                doc.insertString(doc.getLength(), messageText + "\n", messageStyle);
-                
-                // Insert timestamp
-                doc.insertString(doc.getLength(), timestamp + "\n\n", timeStyle);
+                g.setFont(textFont(entry));
+                g.setColor(entry.isSystemMessage ? SYSTEM_TEXT : Color.BLACK);
+                for (String line : entry.lines) {
+                    y = drawLine(g, line, left, y);
+                }
+                g.setFont(TIME_FONT);
+                g.setColor(Color.GRAY);
+                drawLine(g, entry.timestamp, left, y);
+            } finally {
+                g.dispose();
             }
-            
-            // Auto-scroll to bottom
-            chatArea.setCaretPosition(doc.getLength());
-            
-        } catch (BadLocationException e) {
-            System.err.println("❌ Error appending message: " + e.getMessage());
+        }
+        
+        /**
+         * Draw one line inside the bubble, flush with the side the bubble is on
+         * @return the top of the next line
+         */
+        private int drawLine(Graphics2D g, String text, int left, int top) {
+            FontMetrics metrics = g.getFontMetrics();
+            int x = entry.isFromMe
+                ? left + entry.bubbleWidth - PADDING - metrics.stringWidth(text)
+                : left + PADDING;
+            g.drawString(text, x, top + metrics.getAscent());
+            return top + metrics.getHeight();
         }
     }
     
     /**
-     * Check if message is from current user
+     * Transcript cells are not selectable
      */
+    private static final class NoSelectionModel extends DefaultListSelectionModel {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        public void setSelectionInterval(int index0, int index1) {
+        }
+        
+        @Override
+        public void addSelectionInterval(int index0, int index1) {
+        }
+    }
+    
     private boolean isMessageFromMe(String message) {
         if (message == null) return false;
         return message.startsWith(username + ":") || 
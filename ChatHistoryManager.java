@@ -1,129 +1,401 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Manages chat history for different rooms
+ * Manages chat history for different rooms.
+ * Recent messages are kept in memory for replay on join; every message is
+ * also handed to the HistoryWriter, which appends it to the room's
+ * segmented log on disk, so senders never wait for file I/O.
+ * A room's history is loaded from disk the first time it is used, and the
+ * least recently used rooms are dropped from memory once the cache holds
+ * more messages than its budget. Loading and eviction run on loader
+ * threads, so callers such as room shards never wait for the disk.
  */
 public class ChatHistoryManager {
     private static final String HISTORY_DIR = "chat_history";
+    private static final String ROOM_DIR_PREFIX = "room-";
     private static final int MAX_HISTORY_PER_ROOM = 1000; // Max messages per room to store
+    private static final long MAX_SEGMENT_BYTES = 1024 * 1024;
+    private static final long COMPACTION_INTERVAL_MS = 60_000;
+    private static final int LOADER_THREADS = 2;
     
-    private final Map<String, List<String>> roomHistories;
+    private final Map<String, RoomHistory> roomHistories;
+    private final HistoryWriter writer;
+    private final long cacheBudget;
+    private final ExecutorService loader;
+    private final Map<String, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    
+    // Cache statistics
+    private final LongAdder residentMessages = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    
+    /**
+     * Recent messages of one room. Readers copy from the ring without locking;
+     * appenders take the lock so sequence numbers reach the log in order.
+     * A ReentrantLock rather than a monitor keeps virtual threads unpinned.
+     */
+    private static class RoomHistory {
+        final HistoryRing ring;
+        final ReentrantLock appendLock = new ReentrantLock();
+        final long loadedOffset;
+        volatile long lastAccess = System.nanoTime();
+        boolean evicted = false; // guarded by appendLock
+        
+        RoomHistory(long firstSequence, long loadedOffset) {
+            this.ring = new HistoryRing(MAX_HISTORY_PER_ROOM, firstSequence);
+            this.loadedOffset = loadedOffset;
+        }
+        
+        void touch() {
+            lastAccess = System.nanoTime();
+        }
+    }
+    
+    /**
+     * When appended messages are forced to disk
+     */
+    public static class FsyncPolicy {
+        final boolean everyBatch;
+        final int everyMessages;
+        final long intervalMillis;
+        
+        private FsyncPolicy(boolean everyBatch, int everyMessages, long intervalMillis) {
+            this.everyBatch = everyBatch;
+            this.everyMessages = everyMessages;
+            this.intervalMillis = intervalMillis;
+        }
+        
+        public static FsyncPolicy never() {
+            return new FsyncPolicy(false, 0, 0);
+        }
+        
+        /**
+         * One force per group-commit batch: every message is durable once its batch completes
+         */
+        public static FsyncPolicy everyBatch() {
+            return new FsyncPolicy(true, 0, 0);
+        }
+        
+        public static FsyncPolicy everyMessages(int count) {
+            return new FsyncPolicy(false, Math.max(1, count), 0);
+        }
+        
+        public static FsyncPolicy everyMillis(long millis) {
+            return new FsyncPolicy(false, 0, Math.max(1, millis));
+        }
+        
+        /**
+         * Parse "never", "batch", a message count such as "100", or an interval such as "500ms"
+         */
+        public static FsyncPolicy parse(String value) {
+            value = value.trim().toLowerCase(Locale.ROOT);
+            if (value.equals("never")) return never();
+            if (value.equals("batch")) return everyBatch();
+            if (value.endsWith("ms")) return everyMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            return everyMessages(Integer.parseInt(value));
+        }
+        
+        @Override
+        public String toString() {
+            if (everyBatch) return "every batch";
+            if (everyMessages > 0) return "every " + everyMessages + " messages";
+            if (intervalMillis > 0) return "every " + intervalMillis + " ms";
+            return "never";
+        }
+    }
     
     public ChatHistoryManager() {
+        this(FsyncPolicy.everyBatch(), MAX_HISTORY_PER_ROOM * 10L, MAX_HISTORY_PER_ROOM * 100L);
+    }
+    
+    /**
+     * @param fsyncPolicy when appended messages are forced to disk
+     * @param retainedMessages messages per room kept on disk before old segments are deleted
+     * @param cacheBudget messages kept in memory across all rooms before cold rooms are evicted
+     */
+    public ChatHistoryManager(FsyncPolicy fsyncPolicy, long retainedMessages, long cacheBudget) {
         this.roomHistories = new ConcurrentHashMap<>();
+        this.cacheBudget = Math.max(cacheBudget, MAX_HISTORY_PER_ROOM);
+        AtomicInteger loaderCount = new AtomicInteger();
+        this.loader = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "history-loader-" + loaderCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
         createHistoryDirectory();
-        loadAllHistories();
+        this.writer = HistoryWriter.start(this::roomDirectory, fsyncPolicy, MAX_SEGMENT_BYTES,
+            Math.max(retainedMessages, MAX_HISTORY_PER_ROOM), COMPACTION_INTERVAL_MS);
     }
     
     private void createHistoryDirectory() {
         try {
             Files.createDirectories(Paths.get(HISTORY_DIR));
         } catch (IOException e) {
-            System.err.println("Failed to create chat history directory: " + e.getMessage());
+            Log.error("Failed to create chat history directory: " + e.getMessage());
         }
     }
     
     /**
      * Add a message to a room's history
+     * @return the message's sequence number in the room, or -1 if it was not added
      */
-    public void addMessage(String room, String message) {
-        if (room == null || message == null) return;
+    public long addMessage(String room, String message) {
+        if (room == null || message == null) return -1;
         
-        roomHistories.computeIfAbsent(room, _ -> new LinkedList<>());
-        List<String> history = roomHistories.get(room);
-        
-        synchronized (history) {
-            history.add(message);
-            // Trim history if it gets too large
-            while (history.size() > MAX_HISTORY_PER_ROOM) {
-                history.remove(0);
+        while (true) {
+            RoomHistory history = historyFor(room);
+            boolean grew;
+            long sequence;
+            
+            history.appendLock.lock();
+            try {
+                // Lost a race with eviction; load the room again
+                if (history.evicted) continue;
+                
+                grew = history.ring.size() < history.ring.getCapacity();
+                sequence = history.ring.append(message);
+                // Append to the room log off the caller's thread; enqueued under the lock to keep log order
+                if (!writer.enqueue(room, message)) {
+                    Log.warn("History writer stopped, message not persisted for room " + room);
+                }
+            } finally {
+                history.appendLock.unlock();
+            }
+            
+            if (grew) {
+                residentMessages.increment();
+                if (residentMessages.sum() > cacheBudget) {
+                    loader.execute(this::evictIfOverBudget);
+                }
             }
+            return sequence;
+        }
+    }
+    
+    /**
+     * Bring a room's history into memory on a loader thread, so that later
+     * reads and appends do not touch the disk
+     * @return completes once the room is resident; already complete if it is
+     */
+    public CompletableFuture<Void> load(String room) {
+        if (room == null || roomHistories.containsKey(room)) {
+            return CompletableFuture.completedFuture(null);
         }
         
-        // Save to file asynchronously
-        saveRoomHistory(room);
+        CompletableFuture<Void> pending = loading.get(room);
+        if (pending != null) return pending;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pending = loading.putIfAbsent(room, future);
+        if (pending != null) return pending;
+        
+        try {
+            loader.execute(() -> {
+                try {
+                    historyFor(room);
+                } finally {
+                    loading.remove(room, future);
+                    future.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(room, future);
+            future.complete(null);
+        }
+        return future;
     }
     
     /**
-     * Get recent messages from a room's history
+     * Get recent messages from a room's history.
+     * Rooms that are not in memory are served straight from the tail of
+     * their log without being loaded; they are loaded when written to.
      * @param room Room name
      * @param limit Maximum number of messages to return
      * @return List of recent messages
      */
     public List<String> getRecentMessages(String room, int limit) {
-        if (room == null) return Collections.emptyList();
+        return getMessagesSince(room, -1, limit).messages;
+    }
+    
+    /**
+     * Get the messages of a room after a sequence number, e.g. the ones a
+     * client missed since it last saw the room
+     * @param afterSequence last sequence number the caller has, or -1 for none
+     * @param limit Maximum number of messages to return, the most recent ones
+     * @return the messages, oldest first; the first has sequence number
+     *         nextOffset - messages.size()
+     */
+    public RoomLog.Tail getMessagesSince(String room, long afterSequence, int limit) {
+        if (room == null) return new RoomLog.Tail(Collections.emptyList(), 0);
         
-        List<String> history = roomHistories.get(room);
-        if (history == null) return Collections.emptyList();
+        RoomHistory history = roomHistories.get(room);
+        if (history != null) {
+            cacheHits.increment();
+            history.touch();
+            return history.ring.since(afterSequence, limit);
+        }
         
-        synchronized (history) {
-            int fromIndex = Math.max(0, history.size() - limit);
-            return new ArrayList<>(history.subList(fromIndex, history.size()));
+        cacheMisses.increment();
+        Path roomDir = roomDirectory(room);
+        try {
+            migrateLegacyFile(room, roomDir);
+            RoomLog.Tail tail = RoomLog.readTail(roomDir, limit);
+            
+            // Drop what the caller already has
+            long first = tail.nextOffset - tail.messages.size();
+            int skip = (int) Math.min(tail.messages.size(), Math.max(0, afterSequence + 1 - first));
+            return skip == 0 ? tail : new RoomLog.Tail(tail.messages.subList(skip, tail.messages.size()), tail.nextOffset);
+        } catch (IOException e) {
+            Log.error("Failed to read chat history for room " + room + ": " + e.getMessage());
+            return new RoomLog.Tail(Collections.emptyList(), 0);
         }
     }
     
     /**
-     * Save a room's history to disk
+     * Get a room's in-memory history, loading it from disk on first use
      */
-    private void saveRoomHistory(String room) {
-        List<String> history = roomHistories.get(room);
-        if (history == null) return;
+    private RoomHistory historyFor(String room) {
+        RoomHistory history = roomHistories.get(room);
+        if (history != null) {
+            cacheHits.increment();
+            history.touch();
+            return history;
+        }
         
-        Path file = Paths.get(HISTORY_DIR, sanitizeFilename(room) + ".log");
+        // Load outside the map so a slow disk read never blocks other rooms
+        cacheMisses.increment();
+        RoomHistory loaded = loadRoom(room);
+        RoomHistory existing = roomHistories.putIfAbsent(room, loaded);
+        if (existing != null) {
+            existing.touch();
+            return existing;
+        }
         
-        try (PrintWriter writer = new PrintWriter(
-                new OutputStreamWriter(new FileOutputStream(file.toFile()), "UTF-8"))) {
+        residentMessages.add(loaded.ring.size());
+        evictIfOverBudget();
+        return loaded;
+    }
+    
+    /**
+     * Read the tail of a room's log into a new ring
+     */
+    private RoomHistory loadRoom(String room) {
+        Path roomDir = roomDirectory(room);
+        try {
+            migrateLegacyFile(room, roomDir);
+            RoomLog.Tail tail = RoomLog.readTail(roomDir, MAX_HISTORY_PER_ROOM);
             
-            synchronized (history) {
-                for (String message : history) {
-                    writer.println(message);
-                }
+            // Continue numbering where the log left off
+            RoomHistory history = new RoomHistory(tail.nextOffset - tail.messages.size(), tail.nextOffset);
+            for (String message : tail.messages) {
+                history.ring.append(message);
             }
-            
+            return history;
         } catch (IOException e) {
-            System.err.println("Failed to save chat history for room " + room + ": " + e.getMessage());
+            Log.error("Failed to load chat history for room " + room + ": " + e.getMessage());
+            return new RoomHistory(0, 0);
         }
     }
     
     /**
-     * Load all room histories from disk
+     * Drop the least recently used rooms until the cache is back under budget.
+     * Rooms with appends the writer has not yet written stay resident, since
+     * reloading them from disk would miss those messages.
      */
-    private void loadAllHistories() {
-        File dir = new File(HISTORY_DIR);
-        if (!dir.exists() || !dir.isDirectory()) return;
-        
-        File[] files = dir.listFiles((_, name) -> name.endsWith(".log"));
-        if (files == null) return;
+    private void evictIfOverBudget() {
+        if (residentMessages.sum() <= cacheBudget || !evicting.compareAndSet(false, true)) return;
         
-        for (File file : files) {
-            String room = file.getName().replace(".log", "");
-            List<String> history = new LinkedList<>();
+        try {
+            List<Map.Entry<String, RoomHistory>> rooms = new ArrayList<>(roomHistories.entrySet());
+            rooms.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
             
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            // Evict a little below the budget so we do not come straight back here
+            long target = cacheBudget - cacheBudget / 10;
+            for (Map.Entry<String, RoomHistory> entry : rooms) {
+                if (residentMessages.sum() <= target) break;
                 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        history.add(line);
+                String room = entry.getKey();
+                RoomHistory history = entry.getValue();
+                history.appendLock.lock();
+                try {
+                    long appendedUpTo = history.ring.getLastSequence() + 1;
+                    long writtenUpTo = writer.getWrittenOffset(room);
+                    long persistedUpTo = Math.max(history.loadedOffset, writtenUpTo);
+                    if (appendedUpTo > persistedUpTo) continue;
+                    
+                    history.evicted = true;
+                    if (roomHistories.remove(room, history)) {
+                        residentMessages.add(-history.ring.size());
+                        cacheEvictions.increment();
+                        // A cold room keeps nothing in memory; its log knows where it ends
+                        writer.forgetWrittenOffset(room, writtenUpTo);
+                        RoomLog.forgetLineCounts(roomDirectory(room));
                     }
+                } finally {
+                    history.appendLock.unlock();
                 }
-                
-                if (!history.isEmpty()) {
-                    roomHistories.put(room, history);
-                }
-                
-            } catch (IOException e) {
-                System.err.println("Failed to load chat history from " + file.getName() + ": " + e.getMessage());
             }
+        } finally {
+            evicting.set(false);
         }
     }
     
     /**
-     * Sanitize room name for use as filename
+     * Write out pending messages and close all room logs
+     */
+    public void close() {
+        loader.shutdownNow();
+        writer.shutdown();
+    }
+    
+    /**
+     * Cache and persistence statistics for the server stats report
+     */
+    public String getStats() {
+        return String.format(
+            "• History cache: %d rooms, %d/%d messages, %d hits, %d misses, %d evictions%n%s",
+            roomHistories.size(),
+            residentMessages.sum(),
+            cacheBudget,
+            cacheHits.sum(),
+            cacheMisses.sum(),
+            cacheEvictions.sum(),
+            writer.getStats()
+        );
+    }
+    
+    /**
+     * Older versions kept one rewritten file per room, named after the
+     * sanitized room name; adopt it as the room's first segment
+     */
+    private void migrateLegacyFile(String room, Path roomDir) throws IOException {
+        Path legacyFile = Paths.get(HISTORY_DIR, sanitizeFilename(room) + ".log");
+        if (Files.exists(legacyFile) && !Files.exists(roomDir)) {
+            RoomLog.migrateLegacyFile(legacyFile, roomDir);
+        }
+    }
+    
+    /**
+     * Log directory of a room. Room names are chosen by clients, so the
+     * directory is named after the hex of the UTF-8 name: distinct rooms never
+     * share a directory, even on case-insensitive file systems, and no name
+     * can resolve to "." or ".." or leave the history directory.
+     */
+    private Path roomDirectory(String room) {
+        return Paths.get(HISTORY_DIR, ROOM_DIR_PREFIX + HexFormat.of().formatHex(room.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * Sanitize room name the way older versions named their history files
      */
     private String sanitizeFilename(String name) {
         return name.replaceAll("[^a-zA-Z0-9.-]+", "_");
@@ -0,0 +1,171 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ChatReactor - Non-blocking server loop built on ServerSocketChannel and
+ * Selector. The accepting thread hands new channels round-robin to a fixed
+ * set of reactor threads, each of which owns its own Selector and runs the
+ * ClientHandlers of the connections registered with it.
+ */
+public class ChatReactor {
+    private final int port;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger(0);
+    private final Set<Socket> clientSockets;
+    private final Map<String, String> onlineUsers;
+    private volatile boolean running = true;
+
+    public ChatReactor(int port, int threads, Set<Socket> clientSockets, Map<String, String> onlineUsers) {
+        this.port = port;
+        this.clientSockets = clientSockets;
+        this.onlineUsers = onlineUsers;
+        this.reactors = new Reactor[Math.max(1, threads)];
+    }
+
+    /**
+     * Accept connections until the server shuts down. Blocks the calling thread.
+     */
+    public void run() throws IOException {
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor("chat-reactor-" + i);
+            reactors[i].start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open();
+             Selector acceptSelector = Selector.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+            while (running && ChatServer.isRunning()) {
+                // Wake up every second to check for shutdown
+                if (acceptSelector.select(1000) == 0) continue;
+                acceptSelector.selectedKeys().clear();
+
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    // Accepted channels start in blocking mode, so rejections can still use the socket streams
+                    if (!ChatServer.admitConnection(channel.socket())) continue;
+
+                    try {
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        nextReactor().register(channel);
+                    } catch (IOException e) {
+                        Log.error("❌ Failed to register client channel: " + e.getMessage());
+                        channel.close();
+                        ChatServer.connectionClosed();
+                    }
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop all reactor threads
+     */
+    public void shutdown() {
+        running = false;
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                reactor.selector.wakeup();
+            }
+        }
+    }
+
+    private Reactor nextReactor() {
+        return reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+    }
+
+    /**
+     * A single selector thread. Other threads hand it work through execute().
+     */
+    private final class Reactor extends Thread implements Executor {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Reactor(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.offer(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                NioConnection connection = new NioConnection(channel, this);
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.bind(key, new ClientHandler(connection, clientSockets, onlineUsers));
+                    Log.info("🔄 Client handler started for: " + channel.socket().getInetAddress());
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        runSafely(task);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        NioConnection connection = (NioConnection) key.attachment();
+                        runSafely(() -> {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        });
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("❌ Reactor " + getName() + " failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioConnection connection) {
+                        connection.close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    Log.error("❌ Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (CancelledKeyException e) {
+                // Connection closed by another thread while its key was selected
+            } catch (Exception e) {
+                Log.error("❌ Error in reactor " + getName() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
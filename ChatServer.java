@@ -1,12 +1,10 @@
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ChatServer - Multi-room chat server that handles client connections
@@ -15,24 +13,51 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class ChatServer {
     // Configuration
     private static int PORT = 8888;
-    private static final int MAX_CONNECTIONS = 1000;
-    private static final int CONNECTION_RATE_LIMIT = 10; // Max connections per second
-    private static final int SOCKET_TIMEOUT = 30000; // 30 seconds
+    private static int MAX_CONNECTIONS = 1000;
+    private static double connectionRateLimit = 100; // Max connections per second, all clients
+    private static double addressConnectionRateLimit = 10; // Max connections per second from one address
+    private static double messageRateLimit = 20; // Max chat messages per second from one user
+    private static long idleTimeoutSeconds = 90; // Clients send PING every 30 seconds
+    private static boolean nioMode = false;
+    private static int reactorThreads = Runtime.getRuntime().availableProcessors();
+    private static int roomShards = Runtime.getRuntime().availableProcessors();
+    private static int outboundQueueCapacity = 1024;
+    private static OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_TYPING;
 
     // Server state
-    private static final Set<Socket> clientSockets = Collections.synchronizedSet(new HashSet<>());
-    private static final ChatHistoryManager chatHistoryManager = new ChatHistoryManager();
-    private static final Map<String, String> onlineUsers = new ConcurrentHashMap<>();
+    private static final Set<Socket> clientSockets = ConcurrentHashMap.newKeySet();
+    private static ChatHistoryManager.FsyncPolicy historyFsyncPolicy = ChatHistoryManager.FsyncPolicy.everyBatch();
+    private static long historyRetention = 10000;
+    private static long historyCacheBudget = 100000;
+    private static long userListWindowMillis = 100;
+    private static long typingIntervalMillis = 500;
+    private static final long TYPING_EXPIRY_MILLIS = 5000;
+    private static long sessionTtlSeconds = 300;
+    private static int adminPort = 0;
+    private static long metricsIntervalSeconds = 0;
+    private static ChatHistoryManager chatHistoryManager;
+    private static final PresenceIndex presence = new PresenceIndex();
+    private static UserListBroadcaster userListBroadcaster;
+    private static RoomRegistry rooms;
+    private static TypingAggregator typing;
+    private static SessionRegistry sessions;
+    private static IdleWheel idleWheel;
     private static volatile boolean isRunning = true;
     private static final AtomicInteger connectionCount = new AtomicInteger(0);
     private static final AtomicLong totalConnections = new AtomicLong(0);
     private static final AtomicInteger rejectedConnections = new AtomicInteger(0);
-    private static final RateLimiter rateLimiter = new RateLimiter(CONNECTION_RATE_LIMIT, 1000);
-    private static final ExecutorService clientHandlerPool = Executors.newCachedThreadPool();
-    private static final SimpleDateFormat logDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static RateLimiter rateLimiter;
+    private static boolean useVirtualThreads = false;
+    private static ExecutorService clientHandlerPool;
+    private static volatile ChatReactor reactor;
+    private static AdminServer adminServer;
+    private static ScheduledExecutorService metricsDumper;
 
     // Statistics
     private static long serverStartTime = System.currentTimeMillis();
+    private static final LongAdder connectionsOpened = Metrics.counter("connections.opened");
+    private static final LongAdder connectionsClosed = Metrics.counter("connections.closed");
+    private static final LongAdder connectionsRejected = Metrics.counter("connections.rejected");
 
     public static void main(String[] args) {
         // Parse command line arguments
@@ -40,11 +65,34 @@ public class ChatServer {
 
         log("🚀 Chat Server starting on port " + PORT + "...");
 
+        rateLimiter = new RateLimiter(connectionRateLimit, addressConnectionRateLimit, messageRateLimit);
+        chatHistoryManager = new ChatHistoryManager(historyFsyncPolicy, historyRetention, historyCacheBudget);
+        rooms = new RoomRegistry(roomShards, ClientHandler.roomIds);
+        userListBroadcaster = new UserListBroadcaster(userListWindowMillis, ClientHandler::broadcastUserList);
+        typing = new TypingAggregator(rooms, typingIntervalMillis, TYPING_EXPIRY_MILLIS, ClientHandler::broadcastTyping);
+        sessions = new SessionRegistry(sessionTtlSeconds);
+        idleWheel = new IdleWheel(TimeUnit.SECONDS.toMillis(idleTimeoutSeconds), 1000);
+        startMetrics();
+
+        // Handlers block on socket reads, so virtual threads let us park them cheaply
+        clientHandlerPool = useVirtualThreads
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newCachedThreadPool();
+
         // Add shutdown hook for graceful server shutdown
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             log("\n🛑 Shutting down server...");
             isRunning = false;
+            if (reactor != null) {
+                reactor.shutdown();
+            }
             closeAllConnections();
+            userListBroadcaster.shutdown();
+            typing.shutdown();
+            idleWheel.shutdown();
+            rooms.shutdown();
+            if (adminServer != null) adminServer.shutdown();
+            if (metricsDumper != null) metricsDumper.shutdownNow();
             clientHandlerPool.shutdown();
             try {
                 if (!clientHandlerPool.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -54,49 +102,49 @@ public class ChatServer {
                 clientHandlerPool.shutdownNow();
                 Thread.currentThread().interrupt();
             }
+            chatHistoryManager.close();
+            log("💾 Chat history writer stopped\n" + chatHistoryManager.getStats());
             log("Server shutdown complete");
+            Log.shutdown();
         }));
 
+        if (nioMode) {
+            runNioServer();
+        } else {
+            runBlockingServer();
+        }
+
+        log("👋 Server stopped");
+    }
+
+    /**
+     * Accept loop for the thread-per-connection mode
+     */
+    private static void runBlockingServer() {
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             serverSocket.setSoTimeout(1000); // Check for shutdown every second
             log("✅ Chat Server is running on port " + PORT);
             log("💡 Press Ctrl+C to stop the server");
             log("📊 Server info: Max connections: " + MAX_CONNECTIONS + 
-                ", Connection timeout: " + SOCKET_TIMEOUT/1000 + "s");
+                ", Idle timeout: " + idleTimeoutSeconds + "s" +
+                ", Handler threads: " + (useVirtualThreads ? "virtual" : "platform") +
+                ", History fsync: " + historyFsyncPolicy);
 
             while (isRunning) {
                 try {
                     Socket clientSocket = serverSocket.accept();
 
-                    // Check connection limits
-                    if (connectionCount.get() >= MAX_CONNECTIONS) {
-                        rejectConnection(clientSocket, "Server at capacity");
+                    if (!admitConnection(clientSocket)) {
                         continue;
                     }
 
-                    // Check rate limiting
-                    if (!rateLimiter.allowRequest()) {
-                        rejectConnection(clientSocket, "Connection rate limit exceeded");
-                        continue;
-                    }
-
-                    // Configure socket
-                    clientSocket.setSoTimeout(SOCKET_TIMEOUT);
-                    clientSockets.add(clientSocket);
-                    connectionCount.incrementAndGet();
-                    totalConnections.incrementAndGet();
-
-                    log("🔗 New client connected: " + 
-                        clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort() +
-                        " (Active: " + connectionCount.get() + ", Total: " + totalConnections.get() + ")");
-
                     // Submit client handler to thread pool
                     clientHandlerPool.submit(() -> {
-                        ClientHandler handler = new ClientHandler(clientSocket, clientSockets, onlineUsers);
+                        ClientHandler handler = new ClientHandler(clientSocket, clientSockets, presence.userRooms());
                         try {
                             handler.run();
                         } finally {
-                            connectionCount.decrementAndGet();
+                            connectionClosed();
                         }
                     });
 
@@ -109,81 +157,177 @@ public class ChatServer {
                 }
             }
         } catch (IOException e) {
-            System.err.println("❌ Server exception: " + e.getMessage());
+            Log.error("❌ Server exception: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accept loop for the selector-based mode
+     */
+    private static void runNioServer() {
+        reactor = new ChatReactor(PORT, reactorThreads, clientSockets, presence.userRooms());
+        log("✅ Chat Server is running on port " + PORT + " (NIO, " + reactorThreads + " reactor threads)");
+        log("💡 Press Ctrl+C to stop the server");
+        try {
+            reactor.run();
+        } catch (IOException e) {
+            Log.error("❌ Server exception: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply connection limits to a newly accepted socket and register it.
+     * Rejected sockets are answered and closed here.
+     */
+    static boolean admitConnection(Socket clientSocket) {
+        // Check connection limits
+        if (connectionCount.get() >= MAX_CONNECTIONS) {
+            rejectConnection(clientSocket, "Server at capacity");
+            return false;
+        }
+
+        // Check rate limiting, per address first so one noisy client cannot use up the global budget
+        if (!rateLimiter.allowConnectionFrom(clientSocket.getInetAddress())) {
+            rejectConnection(clientSocket, "Too many connections from your address");
+            return false;
+        }
+        if (!rateLimiter.allowConnection()) {
+            rejectConnection(clientSocket, "Connection rate limit exceeded");
+            return false;
+        }
+
+        clientSockets.add(clientSocket);
+        connectionCount.incrementAndGet();
+        totalConnections.incrementAndGet();
+        connectionsOpened.increment();
+
+        log("🔗 New client connected: " + 
+            clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort() +
+            " (Active: " + connectionCount.get() + ", Total: " + totalConnections.get() + ")");
+        return true;
+    }
+
+    /**
+     * Called exactly once for every admitted connection when it closes
+     */
+    static void connectionClosed() {
+        connectionCount.decrementAndGet();
+        connectionsClosed.increment();
+    }
+    
+    /**
+     * Register server gauges, then start the admin endpoint and periodic dump if configured
+     */
+    private static void startMetrics() {
+        Metrics.gauge("connections.active", connectionCount::get);
+        Metrics.gauge("users.online", presence::userCount);
+        Metrics.gauge("rooms.active", () -> rooms.roomCount());
+        Metrics.gauge("outbound.depth_total", ClientHandler::totalOutboundDepth);
+        Metrics.gauge("outbound.depth_max", ClientHandler::maxOutboundDepth);
+        Metrics.gauge("log.dropped", Log::getDropped);
+        
+        if (adminPort > 0) {
+            try {
+                adminServer = new AdminServer(adminPort);
+                adminServer.start();
+                log("🔧 Admin endpoint listening on localhost:" + adminPort);
+            } catch (IOException e) {
+                logError("Could not start admin endpoint on port " + adminPort, e);
+            }
         }
+        
+        if (metricsIntervalSeconds > 0) {
+            metricsDumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metricsDumper.scheduleAtFixedRate(() -> log(Metrics.snapshot()),
+                metricsIntervalSeconds, metricsIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    static boolean isRunning() {
+        return isRunning;
+    }
+
+    static int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    static OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Registry of active rooms; all room state changes run on its shards
+     */
+    static RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    /**
+     * Aggregates typing notifications into periodic per-room updates
+     */
+    static TypingAggregator getTyping() {
+        return typing;
+    }
 
-        System.out.println("👋 Server stopped");
+    /**
+     * Tracks when each connection last sent something and closes silent ones
+     */
+    static IdleWheel getIdleWheel() {
+        return idleWheel;
     }
 
     /**
-     * Updates user's current room
+     * Sessions that reconnecting clients can resume
      */
+    static SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Whether a user is still within the per-user message rate
+     */
+    static boolean allowMessage(String username) {
+        return rateLimiter.allowMessage(username);
+    }
+
     /**
      * Add a message to the chat history
+     * @return the message's sequence number in the room, or -1 if it was not added
      */
-    public static synchronized void addToHistory(String room, String message) {
+    public static long addToHistory(String room, String message) {
         if (room != null && message != null) {
-            chatHistoryManager.addMessage(room, message);
+            return chatHistoryManager.addMessage(room, message);
         }
+        return -1;
     }
     
     /**
      * Update user's current room
      */
-    public static synchronized void updateUserRoom(String username, String room) {
+    public static void updateUserRoom(String username, String room) {
         if (username != null && room != null && !username.trim().isEmpty() && !room.trim().isEmpty()) {
-            onlineUsers.put(username, room);
+            presence.move(username, room);
             log("👤 User '" + username + "' joined room '" + room + "'");
         }
     }
 
     /**
-        // Send to all clients in the room
-        for (ClientHandler client : clientsCopy) {
-            if (client.isConnected()) {
-                client.sendMessage(message);
-            }
-        }
-        
-        // If this is a join/leave message, update user lists for everyone in the room
-        if (message.contains(" joined ") || message.contains(" left ")) {
-            broadcastUserListToRoom(room);
-        }
-    }
-    
-    /**
-     * Broadcast updated user list to all clients in a room
+     * Schedule a coalesced user-list broadcast for a room whose membership changed
      */
-    private static void broadcastUserListToRoom(String room) {
-        if (room == null) return;
-        
-        Set<ClientHandler> roomClients = ClientHandler.roomClients.get(room);
-        if (roomClients == null) return;
-        
-        // Get all users in this room
-        Set<String> usersInRoom = new HashSet<>();
-        for (Map.Entry<String, String> entry : onlineUsers.entrySet()) {
-            if (room.equals(entry.getValue())) {
-                usersInRoom.add(entry.getKey());
-            }
-        }
-        
-        String userList = "[USERS] " + String.join(" ", usersInRoom);
-        
-        // Send to all clients in the room
-        for (ClientHandler client : roomClients) {
-            if (client.isConnected()) {
-                client.sendMessage(userList);
-            }
-        }
+    public static void userListChanged(String room) {
+        userListBroadcaster.roomChanged(room);
     }
 
     /**
      * Removes user from online users list
      */
-    public static synchronized void removeUser(String username) {
+    public static void removeUser(String username) {
         if (username != null && !username.trim().isEmpty()) {
-            String room = onlineUsers.remove(username);
+            String room = presence.remove(username);
             if (room != null) {
                 log("👋 User '" + username + "' left from room '" + room + "'");
             }
@@ -193,42 +337,46 @@ public class ChatServer {
     /**
      * Gets list of all online users as space-separated string
      */
-    public static synchronized String getOnlineUsersList() {
-        return String.join(" ", onlineUsers.keySet());
+    public static String getOnlineUsersList() {
+        return String.join(" ", presence.users());
     }
 
     /**
      * Gets the room that a user is currently in
      */
-    public static synchronized String getUserRoom(String username) {
-        return onlineUsers.get(username);
+    public static String getUserRoom(String username) {
+        return presence.roomOf(username);
     }
 
     /**
      * Gets count of online users
      */
-    public static synchronized int getOnlineUsersCount() {
-        return onlineUsers.size();
+    public static int getOnlineUsersCount() {
+        return presence.userCount();
     }
 
     /**
      * Gets users in a specific room
      */
-    public static synchronized Set<String> getUsersInRoom(String room) {
-        Set<String> usersInRoom = new HashSet<>();
-        for (Map.Entry<String, String> entry : onlineUsers.entrySet()) {
-            if (room.equals(entry.getValue())) {
-                usersInRoom.add(entry.getKey());
-            }
-        }
-        return usersInRoom;
+    public static Set<String> getUsersInRoom(String room) {
+        return presence.membersOf(room);
     }
     
     /**
-     * Get chat history for a room
+     * Load a room's history into memory off the caller's thread
+     * @return completes once reading and appending to the room's history no longer touch the disk
      */
-    public static List<String> getChatHistory(String room) {
-        return chatHistoryManager.getRecentMessages(room, 100); // Last 100 messages
+    public static CompletableFuture<Void> loadHistory(String room) {
+        return chatHistoryManager.load(room);
+    }
+
+    /**
+     * Get chat history for a room: the last 100 messages, or fewer if the
+     * caller already has some of them
+     * @param afterSequence last sequence number the caller has seen, or -1
+     */
+    public static RoomLog.Tail getChatHistory(String room, long afterSequence) {
+        return chatHistoryManager.getMessagesSince(room, afterSequence, 100); // Last 100 messages
     }
 
     /**
@@ -244,6 +392,109 @@ public class ChatServer {
                             PORT = Integer.parseInt(args[++i]);
                         }
                         break;
+                    case "--outbound-queue":
+                        if (i + 1 < args.length) {
+                            outboundQueueCapacity = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--overflow-policy":
+                        if (i + 1 < args.length) {
+                            overflowPolicy = OutboundQueue.OverflowPolicy.fromString(args[++i]);
+                        }
+                        break;
+                    case "--history-fsync":
+                        if (i + 1 < args.length) {
+                            historyFsyncPolicy = ChatHistoryManager.FsyncPolicy.parse(args[++i]);
+                        }
+                        break;
+                    case "--history-retention":
+                        if (i + 1 < args.length) {
+                            historyRetention = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--history-cache":
+                        if (i + 1 < args.length) {
+                            historyCacheBudget = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--user-list-window":
+                        if (i + 1 < args.length) {
+                            userListWindowMillis = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--typing-interval":
+                        if (i + 1 < args.length) {
+                            typingIntervalMillis = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--idle-timeout":
+                        if (i + 1 < args.length) {
+                            idleTimeoutSeconds = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--session-ttl":
+                        if (i + 1 < args.length) {
+                            sessionTtlSeconds = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--connection-rate":
+                        if (i + 1 < args.length) {
+                            connectionRateLimit = Double.parseDouble(args[++i]);
+                        }
+                        break;
+                    case "--ip-connection-rate":
+                        if (i + 1 < args.length) {
+                            addressConnectionRateLimit = Double.parseDouble(args[++i]);
+                        }
+                        break;
+                    case "--message-rate":
+                        if (i + 1 < args.length) {
+                            messageRateLimit = Double.parseDouble(args[++i]);
+                        }
+                        break;
+                    case "--log-level":
+                        if (i + 1 < args.length) {
+                            Log.setLevel(Log.parseLevel(args[++i]));
+                        }
+                        break;
+                    case "--admin-port":
+                        if (i + 1 < args.length) {
+                            adminPort = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--metrics-interval":
+                        if (i + 1 < args.length) {
+                            metricsIntervalSeconds = Long.parseLong(args[++i]);
+                        }
+                        break;
+                    case "--room-shards":
+                        if (i + 1 < args.length) {
+                            roomShards = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--nio":
+                        nioMode = true;
+                        break;
+                    case "--reactors":
+                        if (i + 1 < args.length) {
+                            reactorThreads = Integer.parseInt(args[++i]);
+                            nioMode = true;
+                        }
+                        break;
+                    case "--threads":
+                        if (i + 1 < args.length) {
+                            String mode = args[++i];
+                            if (!mode.equals("virtual") && !mode.equals("platform")) {
+                                throw new IllegalArgumentException("Unknown thread mode: " + mode);
+                            }
+                            useVirtualThreads = mode.equals("virtual");
+                        }
+                        break;
+                    case "--max-connections":
+                        if (i + 1 < args.length) {
+                            MAX_CONNECTIONS = Integer.parseInt(args[++i]);
+                        }
+                        break;
                     case "-h":
                     case "--help":
                         printHelp();
@@ -266,6 +517,26 @@ public class ChatServer {
         System.out.println("Usage: java ChatServer [options]");
         System.out.println("Options:");
         System.out.println("  -p, --port PORT    Set server port (default: 8888)");
+        System.out.println("  --threads MODE     Run client handlers on 'platform' or 'virtual' threads (default: platform)");
+        System.out.println("  --max-connections N  Maximum concurrent connections (default: 1000)");
+        System.out.println("  --outbound-queue N Messages buffered per client before overflow (default: 1024)");
+        System.out.println("  --overflow-policy P  drop-oldest, drop-typing or disconnect (default: drop-typing)");
+        System.out.println("  --history-fsync P  Sync history: 'batch', 'never', every N messages, or every Tms (default: batch)");
+        System.out.println("  --history-retention N  Messages per room kept on disk (default: 10000)");
+        System.out.println("  --history-cache N  Messages kept in memory across all rooms (default: 100000)");
+        System.out.println("  --user-list-window MS  Collect join/leave changes per room before sending user lists (default: 100)");
+        System.out.println("  --typing-interval MS  Minimum time between typing updates to a room (default: 500)");
+        System.out.println("  --idle-timeout S   Close connections that send nothing, not even PING, for S seconds (default: 90)");
+        System.out.println("  --session-ttl S    How long a dropped client can resume its session (default: 300)");
+        System.out.println("  --connection-rate N  New connections accepted per second, all clients (default: 100)");
+        System.out.println("  --ip-connection-rate N  New connections accepted per second from one address (default: 10)");
+        System.out.println("  --message-rate N   Chat messages accepted per second from one user (default: 20)");
+        System.out.println("  --log-level L      debug, info, warn, error or off (default: info)");
+        System.out.println("  --admin-port PORT  Serve metrics, stats and log-level on localhost:PORT (default: off)");
+        System.out.println("  --metrics-interval S  Log a metrics snapshot every S seconds (default: off)");
+        System.out.println("  --room-shards N    Threads that own rooms; each room runs on one (default: CPU count)");
+        System.out.println("  --nio              Use the non-blocking selector-based server");
+        System.out.println("  --reactors N       Number of reactor threads in NIO mode (default: CPU count)");
         System.out.println("  -h, --help         Show this help message\n");
     }
 
@@ -278,6 +549,7 @@ public class ChatServer {
             log("❌ Connection rejected: " + reason + " from " + 
                 socket.getInetAddress().getHostAddress());
             rejectedConnections.incrementAndGet();
+            connectionsRejected.increment();
         } catch (IOException e) {
             logError("Error sending rejection message", e);
         } finally {
@@ -294,28 +566,25 @@ public class ChatServer {
      */
     private static void closeAllConnections() {
         log("Closing all client connections...");
-        int count = 0;
-        synchronized (clientSockets) {
-            count = clientSockets.size();
-            for (Socket socket : clientSockets) {
-                try {
-                    if (!socket.isClosed()) {
-                        socket.close();
-                    }
-                } catch (IOException e) {
-                    logError("Error closing client socket", e);
+        int count = clientSockets.size();
+        for (Socket socket : clientSockets) {
+            try {
+                if (!socket.isClosed()) {
+                    socket.close();
                 }
+            } catch (IOException e) {
+                logError("Error closing client socket", e);
             }
-            clientSockets.clear();
         }
-        onlineUsers.clear();
+        clientSockets.clear();
+        presence.clear();
         log("Closed " + count + " client connections");
     }
 
     /**
      * Get server statistics
      */
-    public static synchronized String getServerStats() {
+    public static String getServerStats() {
         long uptime = (System.currentTimeMillis() - serverStartTime) / 1000;
         long hours = uptime / 3600;
         long minutes = (uptime % 3600) / 60;
@@ -328,13 +597,31 @@ public class ChatServer {
             "• Total connections: %d%n" +
             "• Rejected connections: %d%n" +
             "• Online users: %d%n" +
-            "• Active rooms: %d",
+            "• Active rooms: %d%n" +
+            "• Queued outbound messages: %d%n" +
+            "• Dropped outbound messages: %d%n" +
+            "• Slow consumers disconnected: %d%n" +
+            "%s%n" +
+            "%s%n" +
+            "%s%n" +
+            "%s%n" +
+            "%s%n" +
+            "%s",
             hours, minutes, seconds,
             connectionCount.get(),
             totalConnections.get(),
             rejectedConnections.get(),
-            onlineUsers.size(),
-            new HashSet<>(onlineUsers.values()).size()
+            presence.userCount(),
+            rooms.roomCount(),
+            OutboundQueue.totalQueued(),
+            OutboundQueue.totalDropped(),
+            OutboundQueue.totalOverflowDisconnects(),
+            rooms.getStats(),
+            userListBroadcaster.getStats(),
+            typing.getStats(),
+            sessions.getStats(),
+            idleWheel.getStats(),
+            chatHistoryManager.getStats()
         );
     }
 
@@ -342,47 +629,13 @@ public class ChatServer {
      * Log a message with timestamp
      */
     private static void log(String message) {
-        System.out.printf("[%s] %s%n", logDateFormat.format(new Date()), message);
+        Log.info(message);
     }
 
     /**
-     * Log an error with stack trace
+     * Log an error with the message of its cause
      */
     private static void logError(String message, Throwable t) {
-        System.err.printf("[%s] ❌ %s: %s%n", 
-            logDateFormat.format(new Date()), message, t.getMessage());
-    }
-    
-    /**
-     * Simple rate limiter implementation using a sliding window algorithm
-     */
-    private static class RateLimiter {
-        private final int maxRequests;
-        private final long timeWindowInMillis;
-        private final Queue<Long> requestTimes;
-        
-        public RateLimiter(int maxRequests, long timeWindowInMillis) {
-            this.maxRequests = maxRequests;
-            this.timeWindowInMillis = timeWindowInMillis;
-            this.requestTimes = new ConcurrentLinkedQueue<>();
-        }
-        
-        public synchronized boolean allowRequest() {
-            long currentTime = System.currentTimeMillis();
-            
-            // Remove timestamps older than the time window
-            while (!requestTimes.isEmpty() && 
-                   currentTime - requestTimes.peek() > timeWindowInMillis) {
-                requestTimes.poll();
-            }
-            
-            // Check if we can allow the request
-            if (requestTimes.size() < maxRequests) {
-                requestTimes.offer(currentTime);
-                return true;
-            }
-            
-            return false;
-        }
+        Log.error("❌ " + message + ": " + t.getMessage());
     }
-}
\ No newline at end of file
+}
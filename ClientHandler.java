@@ -1,27 +1,57 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * ClientHandler - Handles individual client connections and manages
  * room-based messaging, user management, and client communication.
  */
 public class ClientHandler implements Runnable {
-    // Room management - maps room names to sets of connected clients
-    public static final Map<String, Set<ClientHandler>> roomClients = new ConcurrentHashMap<>();
+    // Server-wide IDs of rooms and users for the binary protocol
+    private static final int MAX_NAME_IDS = 1 << 16;
+    static final NameRegistry roomIds = new NameRegistry("room", MAX_NAME_IDS);
+    static final NameRegistry userIds = new NameRegistry("user", MAX_NAME_IDS);
+    
+    // Metrics
+    private static final Histogram broadcastFanoutMicros = Metrics.histogram("broadcast.fanout_us");
+    private static final Histogram broadcastRecipients = Metrics.histogram("broadcast.recipients");
+    private static final Histogram joinHistoryMicros = Metrics.histogram("join.history_us");
+    private static final Histogram joinHistoryMessages = Metrics.histogram("join.history_messages");
+    private static final Histogram outboundHighWater = Metrics.histogram("outbound.high_water");
     
     // Client connection components
     private final Socket socket;
     private final Set<Socket> clientSockets;
     @SuppressWarnings("unused")
     private final Map<String, String> onlineUsers;
-    private PrintWriter out;
+    private OutputStream out;
     private BufferedReader in;
+    private final NioConnection connection;
+    private final OutboundQueue outbound =
+        new OutboundQueue(ChatServer.getOutboundQueueCapacity(), ChatServer.getOverflowPolicy());
+    private final AtomicBoolean cleanedUp = new AtomicBoolean(false);
+    private final CommandParser parser = new CommandParser();
+    private final IdleWheel.Entry idle = ChatServer.getIdleWheel().register(this::closeIdle);
+    
+    // Binary protocol state; what each ID was last defined as to this client, guarded by defineLock
+    private volatile boolean binaryProtocol = false;
+    private boolean receivedLine = false; // HELLO is only accepted as the first line; reading thread only
+    private final ReentrantLock defineLock = new ReentrantLock();
+    private final Map<Integer, String> definedRooms = new HashMap<>();
+    private final Map<Integer, String> definedUsers = new HashMap<>();
+    private final AtomicReference<String> heldUserName = new AtomicReference<>(); // Holds an ID in userIds
     
     // Client state
     private String username;
-    private String currentRoom;
+    private volatile String currentRoom;
+    private long resumeAfter = -1; // From [RESUME], for the next join only
+    private volatile SessionRegistry.Session session;
     protected volatile boolean isConnected = true;
     
     /**
@@ -35,119 +65,468 @@ public class ClientHandler implements Runnable {
         this.socket = socket;
         this.clientSockets = clientSockets;
         this.onlineUsers = onlineUsers;
+        this.connection = null;
         
         try {
-            this.out = new PrintWriter(socket.getOutputStream(), true);
+            // Messages arrive pre-encoded; the writer thread flushes once the queue is drained
+            this.out = new BufferedOutputStream(socket.getOutputStream());
             this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         } catch (IOException e) {
-            System.err.println("❌ Failed to setup client streams: " + e.getMessage());
+            Log.error("❌ Failed to setup client streams: " + e.getMessage());
             cleanup();
         }
     }
     
+    /**
+     * Create a handler for a non-blocking connection. Lines are pushed in by
+     * the owning reactor thread through processLine instead of run().
+     */
+    public ClientHandler(NioConnection connection, Set<Socket> clientSockets, Map<String, String> onlineUsers) {
+        this.socket = connection.socket();
+        this.clientSockets = clientSockets;
+        this.onlineUsers = onlineUsers;
+        this.connection = connection;
+    }
+    
     /**
      * Send a message to this client
      */
     public void sendMessage(String message) {
-        if (out != null && message != null) {
-            out.println(message);
+        if (message != null) {
+            send(binaryProtocol ? WireMessage.frame(BinaryProtocol.text(message)) : WireMessage.of(message));
+        }
+    }
+    
+    /**
+     * Whether this client negotiated the binary protocol
+     */
+    boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+    
+    /**
+     * Queue a chat frame, preceded by definitions of its room and user if
+     * this client has not been told them yet. Holding the lock keeps a
+     * concurrent broadcast from overtaking the definitions.
+     */
+    private void sendChat(int roomId, String room, int userId, String user, WireMessage chat) {
+        defineLock.lock();
+        try {
+            defineRoom(roomId, room);
+            if (!user.equals(definedUsers.get(userId))) {
+                // New to this client, or the ID has since gone to another user
+                send(WireMessage.frame(BinaryProtocol.user(userId, user)));
+                definedUsers.put(userId, user);
+            }
+            send(chat);
+        } finally {
+            defineLock.unlock();
+        }
+    }
+    
+    private void defineRoom(int roomId, String room) {
+        defineLock.lock();
+        try {
+            if (!room.equals(definedRooms.get(roomId))) {
+                send(WireMessage.frame(BinaryProtocol.room(roomId, room)));
+                definedRooms.put(roomId, room);
+            }
+        } finally {
+            defineLock.unlock();
+        }
+    }
+    
+    /**
+     * Queue an encoded message for this client without blocking the caller.
+     * Broadcasts pass the same WireMessage to every recipient.
+     */
+    public void send(WireMessage message) {
+        if (!isConnected) return;
+        
+        if (!outbound.offer(message)) {
+            if (isConnected) {
+                Log.warn("🐢 Disconnecting slow consumer: " +
+                    (username != null ? username : socket.getInetAddress()) +
+                    " (" + outbound.depth() + " messages queued)");
+                cleanup();
+            }
+            return;
+        }
+        
+        if (connection != null) {
+            connection.requestFlush();
         }
     }
     
+    /**
+     * Messages waiting to be written to this client
+     */
+    OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+    
     /**
      * Handle joining a room
      */
     private void joinRoom(String room) {
+        joinRoom(room, -1);
+    }
+    
+    /**
+     * Handle joining a room
+     * @param afterSequence only replay history after this sequence number, or -1 for all
+     */
+    private void joinRoom(String room, long afterSequence) {
         if (room == null || room.trim().isEmpty()) return;
         
         // Leave current room if any
         leaveCurrentRoom();
+        setCurrentRoom(room);
         
-        // Add to new room
-        roomClients.computeIfAbsent(room, _ -> ConcurrentHashMap.newKeySet()).add(this);
+        // History is sent on the room's shard, so no live message can overtake it.
+        // A cold room's history is read first, off the shard, holding back only this room.
+        // The latency covers both waits as well as the replay itself.
+        long start = System.nanoTime();
+        ChatServer.getRooms().holdUntil(room, ChatServer.loadHistory(room));
+        ChatServer.getRooms().join(room, this, joined -> {
+            // Binary clients need the room's ID before they can send to it;
+            // without one they send text lines
+            if (binaryProtocol && joined.getId() != NameRegistry.NO_ID) {
+                defineRoom(joined.getId(), room);
+            }
+            
+            RoomLog.Tail history = ChatServer.getChatHistory(room, afterSequence);
+            if (afterSequence >= history.nextOffset) {
+                // The client's cache is from a history we no longer have, e.g. its files were removed
+                sendMessage("[HISTORY_RESET] " + room);
+                history = ChatServer.getChatHistory(room, -1);
+            }
+            long seq = history.nextOffset - history.messages.size();
+            for (String message : history.messages) {
+                sendHistory(joined, message, seq++);
+            }
+            joinHistoryMicros.record((System.nanoTime() - start) / 1000);
+            joinHistoryMessages.record(history.messages.size());
+            
+            // Members (including this client) get the new user list once the room settles
+            ChatServer.userListChanged(room);
+        });
+    }
+    
+    /**
+     * Keep the ID of this connection's user from going to another user while it is connected
+     */
+    private void holdUserId(String name) {
+        String held = userIds.acquire(name) != NameRegistry.NO_ID ? name : null;
+        String previous = heldUserName.getAndSet(held);
+        if (previous != null) userIds.release(previous);
+        // Cleanup may have released before we took the hold
+        if (cleanedUp.get()) releaseUserId();
+    }
+    
+    private void releaseUserId() {
+        String previous = heldUserName.getAndSet(null);
+        if (previous != null) userIds.release(previous);
+    }
+    
+    /**
+     * Make a room this connection's current one, for its session and in the presence index
+     */
+    private void setCurrentRoom(String room) {
         currentRoom = room;
+        SessionRegistry.Session current = session;
+        if (current != null) current.room = room;
+        ChatServer.updateUserRoom(username, room);
+    }
+    
+    /**
+     * Replay one history message. Binary clients get chat lines as CHAT
+     * frames so they learn each message's sequence number and can resume
+     * from it later.
+     */
+    private void sendHistory(Room room, String message, long seq) {
+        if (binaryProtocol) {
+            String prefix = "[" + room.getName() + "] ";
+            int separator = message.startsWith(prefix) ? message.indexOf(": ", prefix.length()) : -1;
+            if (separator > prefix.length()) {
+                String sender = message.substring(prefix.length(), separator);
+                int userId = userIds.idOf(sender);
+                if (room.getId() == NameRegistry.NO_ID || userId == NameRegistry.NO_ID) {
+                    sendMessage(message);
+                    return;
+                }
+                ByteBuffer chat = BinaryProtocol.chat(room.getId(), userId, seq, message.substring(separator + 2));
+                sendChat(room.getId(), room.getName(), userId, sender, WireMessage.frame(chat));
+                return;
+            }
+        }
+        sendMessage(message);
+    }
+    
+    /**
+     * Give the client a token to resume with after a dropped connection,
+     * unless it already has one for this user
+     */
+    private void openSession() {
+        SessionRegistry.Session current = session;
+        if (current != null && current.username.equals(username)) return;
         
-        // Send chat history for the room
-        List<String> history = ChatServer.getChatHistory(room);
-        for (String message : history) {
-            sendMessage(message);
+        if (current != null) ChatServer.getSessions().detach(current, this);
+        session = ChatServer.getSessions().open(username, this);
+        sendMessage("[SESSION] " + session.token);
+    }
+    
+    /**
+     * Take over a session from an earlier connection: same user, same room,
+     * and only the history after a preceding [RESUME]. Unknown tokens are
+     * answered with [SESSION_EXPIRED] so the client joins normally.
+     */
+    private void resumeSession(String token) {
+        long after = resumeAfter;
+        resumeAfter = -1;
+        SessionRegistry.Session resumed = token == null ? null : ChatServer.getSessions().resume(token, this);
+        if (resumed == null) {
+            sendMessage("[SESSION_EXPIRED]");
+            return;
         }
         
-        // Broadcast updated user list to all clients in the room
-        broadcastUserList(room);
+        SessionRegistry.Session current = session;
+        if (current != null && current != resumed) ChatServer.getSessions().detach(current, this);
+        session = resumed;
+        username = resumed.username;
+        holdUserId(username);
+        Log.info("🔁 " + username + " resumed their session in '" + resumed.room + "'");
+        sendMessage("[SESSION] " + resumed.token);
+        joinRoom(resumed.room, after);
     }
     
     /**
      * Leave current room if any
      */
     private void leaveCurrentRoom() {
-        if (currentRoom != null) {
-            Set<ClientHandler> room = roomClients.get(currentRoom);
-            if (room != null) {
-                room.remove(this);
-                if (room.isEmpty()) {
-                    roomClients.remove(currentRoom);
-                } else {
-                    // Broadcast updated user list to remaining clients in the room
-                    broadcastUserList(currentRoom);
-                }
-            }
+        String room = currentRoom;
+        String user = username;
+        if (room != null) {
             currentRoom = null;
+            ChatServer.getRooms().leave(room, this, left -> {
+                ChatServer.userListChanged(room);
+                ChatServer.getTyping().stopped(left, user);
+            });
         }
     }
     
     @Override
     public void run() {
-        System.out.println("🔄 Client handler started for: " + socket.getInetAddress());
+        Log.info("🔄 Client handler started for: " + socket.getInetAddress());
+        
+        // Writer runs on the same kind of thread as the reader
+        Thread writer = (Thread.currentThread().isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform().daemon())
+            .name("writer-" + socket.getPort())
+            .start(this::writeLoop);
         
         try {
             String message;
-            while (isConnected && (message = in.readLine()) != null && !Thread.currentThread().isInterrupted()) {
-                
-                if (message.startsWith("[DISCONNECT]")) {
-                    System.out.println("👋 Client requested disconnect: " + username);
-                    break;
+            boolean open = true;
+            while (open && isConnected && !binaryProtocol && (message = in.readLine()) != null
+                    && !Thread.currentThread().isInterrupted()) {
+                open = processLine(message);
+            }
+            
+            // The client waits for our ACK before sending frames, so nothing is left in the reader's buffer
+            if (open && binaryProtocol) {
+                InputStream frames = new BufferedInputStream(socket.getInputStream());
+                ByteBuffer frame;
+                while (isConnected && (frame = BinaryProtocol.readFrame(frames)) != null && processFrame(frame)) {
+                    // keep reading
                 }
-                
-                handleMessage(message.trim());
             }
         } catch (IOException e) {
             if (isConnected) {
-                System.out.println("🔌 Client disconnected unexpectedly: " + 
+                Log.info("🔌 Client disconnected unexpectedly: " + 
                     (username != null ? username : socket.getInetAddress()));
             }
         } finally {
             cleanup();
+            writer.interrupt();
+        }
+    }
+    
+    /**
+     * Drain the outbound queue to the socket. A slow receiver only ever
+     * blocks this thread, never the senders broadcasting to it.
+     */
+    private void writeLoop() {
+        try {
+            WireMessage message;
+            while ((message = outbound.take()) != null) {
+                message.writeTo(out);
+                // Flush once per burst so consecutive messages share a write
+                if (outbound.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (isConnected) {
+                Log.error("❌ Error writing to " + (username != null ? username : socket.getInetAddress()) +
+                    ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (isConnected) {
+                cleanup();
+            }
         }
     }
     
+    /**
+     * Handle one line received from the client.
+     * @return false if the client asked to disconnect
+     */
+    boolean processLine(String message) {
+        idle.touch();
+        if (message.startsWith("[DISCONNECT]")) {
+            Log.info("👋 Client requested disconnect: " + username);
+            return false;
+        }
+        
+        boolean first = !receivedLine;
+        receivedLine = true;
+        if (message.equals(BinaryProtocol.HELLO)) {
+            if (!first || binaryProtocol) {
+                // Once the client may be in a room, a broadcast could slip a text line in after the ACK
+                sendMessage("[ERROR] The protocol can only be chosen in the first message");
+                return true;
+            }
+            // Acknowledge in text; everything after the ACK is framed. Nothing
+            // else has been sent to this client yet, so nothing can come between.
+            send(WireMessage.of(BinaryProtocol.ACK));
+            binaryProtocol = true;
+            Log.info("🔢 " + socket.getInetAddress() + " switched to the binary protocol");
+            return true;
+        }
+        
+        handleMessage(message);
+        return true;
+    }
+    
+    /**
+     * Handle one binary protocol frame received from the client.
+     * @return false if the client asked to disconnect or sent a malformed frame
+     */
+    boolean processFrame(ByteBuffer frame) {
+        try {
+            int opcode = (int) BinaryProtocol.readVarint(frame);
+            switch (opcode) {
+                case BinaryProtocol.TEXT:
+                    return processLine(BinaryProtocol.readString(frame));
+                case BinaryProtocol.SEND:
+                    idle.touch();
+                    handleSend((int) BinaryProtocol.readVarint(frame), BinaryProtocol.readString(frame));
+                    return true;
+                default:
+                    Log.warn("⚠️ Unknown frame opcode " + opcode + " from " + username);
+                    return true;
+            }
+        } catch (RuntimeException e) {
+            Log.error("❌ Malformed frame from " + (username != null ? username : socket.getInetAddress()) +
+                ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Handle a chat message sent as a SEND frame: no brackets to parse, the
+     * room comes by ID and the sender is the joined user
+     */
+    private void handleSend(int roomId, String text) {
+        // The ID means what we last told this client, whoever has it now
+        String room;
+        defineLock.lock();
+        try {
+            room = definedRooms.get(roomId);
+        } finally {
+            defineLock.unlock();
+        }
+        if (room == null || username == null) {
+            sendMessage("[ERROR] Unknown room");
+            return;
+        }
+        
+        if (Log.isDebugEnabled()) {
+            Log.debug("📨 Received from " + username + ": [" + room + "] " + text);
+        }
+        if (!room.equals(currentRoom)) {
+            joinRoom(room);
+        }
+        if (!withinMessageRate()) return;
+        
+        String content = username + ": " + text;
+        publishChat(room, "[" + room + "] " + content, content);
+    }
+    
+    /**
+     * Check the sender's message rate; chat over the limit is dropped and the sender told why
+     */
+    private boolean withinMessageRate() {
+        if (ChatServer.allowMessage(username)) return true;
+        sendMessage("[ERROR] Rate limit exceeded, message not sent");
+        return false;
+    }
+    
     /**
      * Processes incoming messages from client
      */
-    private void handleMessage(String message) {
-        if (message.isEmpty()) return;
+    private void handleMessage(String rawMessage) {
+        CommandParser.Type type = parser.parse(rawMessage);
+        if (parser.isEmpty()) return;
         
-        System.out.println("📨 Received from " + (username != null ? username : "unknown") + ": " + message);
+        if (Log.isDebugEnabled()) {
+            Log.debug("📨 Received from " + (username != null ? username : "unknown") + ": " + rawMessage);
+        }
         
         try {
-            if (message.startsWith("[JOIN_ROOM] ")) {
-                // Handle join room command: [JOIN_ROOM] username room
-                String[] parts = message.substring(11).trim().split("\\s+", 2);
-                if (parts.length == 2) {
-                    this.username = parts[0];
-                    joinRoom(parts[1]);
-                }
-            } else if (message.equals("[GET_USERS]")) {
-                sendUserList();
-            } else if (message.startsWith("[TYPING] ")) {
-                handleTyping(message);
-            } else if (message.startsWith("[ROOM_CHANGE] ")) {
-                handleRoomChange(message);
-            } else if (message.startsWith("[")) {
-                int endBracket = message.indexOf("]");
-                if (endBracket > 0) {
-                    String room = message.substring(1, endBracket).trim();
-                    String content = message.substring(endBracket + 1).trim();
+            switch (type) {
+                case JOIN_ROOM:
+                    // Handle join room command: [JOIN_ROOM] username room
+                    if (parser.hasArguments()) {
+                        String previousName = username;
+                        this.username = parser.first();
+                        if (previousName != null && !previousName.equals(username)) {
+                            ChatServer.removeUser(previousName);
+                        }
+                        holdUserId(username);
+                        openSession();
+                        long after = resumeAfter;
+                        resumeAfter = -1;
+                        joinRoom(parser.second(), after);
+                    }
+                    break;
+                case RESUME:
+                    // The client already has the room's messages up to this sequence number
+                    resumeAfter = parser.firstAsLong();
+                    break;
+                case SESSION:
+                    // Handle resume session command: [SESSION] token
+                    resumeSession(parser.first());
+                    break;
+                case PING:
+                    // Receiving it already counts as activity; the reply lets the client know we are alive
+                    sendMessage("PONG");
+                    break;
+                case GET_USERS:
+                    sendUserList();
+                    break;
+                case TYPING:
+                    handleTyping();
+                    break;
+                case ROOM_CHANGE:
+                    handleRoomChange();
+                    break;
+                case ROOM_MESSAGE: {
+                    // Only extract the room name when it differs from the current one
+                    String room = parser.firstEquals(currentRoom) ? currentRoom : parser.first();
+                    String message = parser.line();
                     
                     // If this is a new room for the client, join it
                     if (currentRoom == null || !currentRoom.equals(room)) {
@@ -155,34 +534,35 @@ public class ClientHandler implements Runnable {
                     }
                     
                     // If this is a chat message (contains a colon after room name)
-                    if (content.contains(":")) {
-                        // Save to chat history
-                        ChatServer.addToHistory(room, message);
-                        // Broadcast to all in the room
-                        broadcastToRoom(message);
+                    if (parser.isChat()) {
+                        if (!withinMessageRate()) break;
+                        
+                        // Save to chat history and broadcast to all in the room
+                        publishChat(room, message, parser.second());
                     } else {
-                        // Handle other types of messages
                         broadcastToRoom(message);
                     }
+                    break;
                 }
-            } else {
-                System.out.println("⚠️ Unknown message format: " + message);
+                default:
+                    Log.warn("⚠️ Unknown message format: " + parser.line());
             }
         } catch (Exception e) {
-            System.err.println("❌ Error handling message: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("❌ Error handling message: " + e.getMessage(), e);
         }
     }
     
     /**
-     * Broadcast updated user list to all clients in the room
+     * Broadcast the current user list to all clients in the room.
+     * Called by the user-list broadcaster; handlers only report changes.
      */
-    private void broadcastUserList(String room) {
-        Set<ClientHandler> roomClients = ClientHandler.roomClients.get(room);
-        if (roomClients != null && !roomClients.isEmpty()) {
+    static void broadcastUserList(String room) {
+        ChatServer.getRooms().execute(room, target -> {
+            ClientHandler[] members = target.members();
+            
             // Build user list message
             StringBuilder userList = new StringBuilder("[USER_LIST]");
-            for (ClientHandler client : roomClients) {
+            for (ClientHandler client : members) {
                 if (client.username != null && !client.username.isEmpty()) {
                     userList.append(client.username).append(",");
                 }
@@ -192,79 +572,89 @@ public class ClientHandler implements Runnable {
                 userList.setLength(userList.length() - 1);
             }
             
-            // Send to each client in the room
-            for (ClientHandler client : roomClients) {
-                client.sendMessage(userList.toString());
+            // Encode once per protocol and send to each client in the room
+            Outgoing encoded = new Outgoing(userList.toString(), false);
+            for (ClientHandler client : members) {
+                client.send(encoded.encodedFor(client));
             }
-        }
+        });
     }
     
     /**
      * Handles room change request
      */
-    private void handleRoomChange(String message) {
-        String[] parts = message.substring(14).trim().split("\\s+", 2);
-        if (parts.length < 2) {
-            out.println("[ERROR] Invalid ROOM_CHANGE format");
+    private void handleRoomChange() {
+        if (!parser.hasArguments()) {
+            sendMessage("[ERROR] Invalid ROOM_CHANGE format");
             return;
         }
         
         String oldRoom = currentRoom;
-        String newRoom = parts[1].trim();
+        String newRoom = parser.second();
         
         if (newRoom.isEmpty()) {
-            out.println("[ERROR] Invalid room name");
+            sendMessage("[ERROR] Invalid room name");
             return;
         }
         
-        System.out.println("🔄 " + username + " changing from '" + oldRoom + "' to '" + newRoom + "'");
+        Log.info("🔄 " + username + " changing from '" + oldRoom + "' to '" + newRoom + "'");
         
-        // Remove from old room
+        // Remove from old room and notify whoever is left
         if (oldRoom != null) {
-            Set<ClientHandler> oldRoomClients = roomClients.get(oldRoom);
-            if (oldRoomClients != null) {
-                oldRoomClients.remove(this);
-                if (oldRoomClients.isEmpty()) {
-                    roomClients.remove(oldRoom);
-                }
-                // Notify old room
-                broadcastToRoom("[" + oldRoom + "] 👋 " + username + " has left the room", oldRoom);
-            }
+            String user = username;
+            String left = "[" + oldRoom + "] 👋 " + user + " has left the room";
+            ChatServer.getRooms().leave(oldRoom, this, room -> {
+                ChatServer.userListChanged(oldRoom);
+                ChatServer.getTyping().stopped(room, user);
+                deliver(room, new Outgoing(left, false));
+            });
         }
         
         // Join new room
-        currentRoom = newRoom;
-        ChatServer.updateUserRoom(username, currentRoom);
-        roomClients.computeIfAbsent(currentRoom, _ -> ConcurrentHashMap.newKeySet()).add(this);
-        
-        // Notify new room
-        broadcastToRoom("[" + currentRoom + "] 🎉 " + username + " has joined the room");
-        broadcastUserListToRoom();
+        setCurrentRoom(newRoom);
+        String joined = "[" + newRoom + "] 🎉 " + username + " has joined the room";
+        ChatServer.getRooms().join(newRoom, this, room -> {
+            deliver(room, new Outgoing(joined, false));
+            ChatServer.userListChanged(newRoom);
+        });
     }
     
     /**
-     * Handles typing indicator
+     * Handles typing indicator. The sender and room are the connection's own,
+     * whatever the line claims; members hear about it through the aggregator.
      */
-    private void handleTyping(String message) {
-        if (currentRoom != null) {
-            broadcastToRoom(message);
-        }
+    private void handleTyping() {
+        ChatServer.getTyping().typing(currentRoom, username);
     }
     
     /**
-     * Sends user list to requesting client
+     * Send a room's typing list to its members. Runs on the room's shard;
+     * the update is the first thing dropped for a client that falls behind.
+     */
+    static void broadcastTyping(Room room, String typists) {
+        deliver(room, new Outgoing("[TYPING_USERS]" + typists, true));
+    }
+    
+    /**
+     * Sends a full snapshot of the room's users to the requesting client,
+     * immediately, so it can resync without waiting for the next broadcast
      */
     private void sendUserList() {
-        Set<ClientHandler> roomUsers = roomClients.getOrDefault(currentRoom, Collections.emptySet());
-        StringBuilder userList = new StringBuilder("[USERS]");
-        
-        for (ClientHandler client : roomUsers) {
-            if (client.username != null) {
-                userList.append(" ").append(client.username);
-            }
+        String room = currentRoom;
+        if (room == null) {
+            sendMessage("[USERS]");
+            return;
         }
         
-        out.println(userList.toString());
+        ChatServer.getRooms().execute(room, target -> {
+            StringBuilder userList = new StringBuilder("[USERS]");
+            for (ClientHandler client : target.members()) {
+                if (client.username != null) {
+                    userList.append(" ").append(client.username);
+                }
+            }
+            sendMessage(userList.toString());
+        });
     }
     
     /**
@@ -278,71 +668,193 @@ public class ClientHandler implements Runnable {
      * Broadcasts message to all users in specified room
      */
     private void broadcastToRoom(String message, String room) {
+        broadcastToRoom(message, room, false);
+    }
+    
+    /**
+     * Broadcasts message to all users in specified room
+     * @param droppable true if recipients under backpressure may discard it
+     */
+    private void broadcastToRoom(String message, String room, boolean droppable) {
         if (room == null) return;
         
-        Set<ClientHandler> roomUsers = roomClients.getOrDefault(room, Collections.emptySet());
-        
-        // Create a copy to avoid concurrent modification
-        Set<ClientHandler> usersCopy = new HashSet<>(roomUsers);
+        Outgoing encoded = new Outgoing(message, droppable);
+        ChatServer.getRooms().execute(room, target -> deliver(target, encoded));
+    }
+    
+    /**
+     * Save a chat message to the room's history and broadcast it. Both run
+     * on the room's shard, so members receive messages in sequence order.
+     * @param content the message without its room tag
+     */
+    private void publishChat(String room, String message, String content) {
+        String user = username;
+        // An evicted room is loaded again off the shard before the append
+        ChatServer.getRooms().holdUntil(room, ChatServer.loadHistory(room));
+        ChatServer.getRooms().execute(room, target -> {
+            ChatServer.getTyping().stopped(target, user);
+            long seq = ChatServer.addToHistory(room, message);
+            broadcastChat(target, message, content, seq);
+        });
+    }
+    
+    /**
+     * Broadcasts a chat message to all users in a room. Binary clients get a
+     * CHAT frame with interned IDs when the content has the usual
+     * "user: text" form; everyone else gets the line. Runs on the room's shard.
+     * @param content the message without its room tag
+     * @param seq the message's sequence number in the room, or -1
+     */
+    private static void broadcastChat(Room room, String message, String content, long seq) {
+        int separator = content.indexOf(": ");
+        if (separator <= 0) {
+            deliver(room, new Outgoing(message, false));
+            return;
+        }
+        String sender = content.substring(0, separator);
+        String text = content.substring(separator + 2);
         
-        for (ClientHandler client : usersCopy) {
-            if (client.isConnected() && client.out != null) {
-                try {
-                    client.out.println(message);
-                } catch (Exception e) {
-                    System.err.println("❌ Error sending to " + client.username + ": " + e.getMessage());
-                    // Remove disconnected client
-                    roomUsers.remove(client);
-                    client.cleanup();
+        room.messageSent();
+        Outgoing line = new Outgoing(message, false);
+        int roomId = room.getId();
+        int userId = userIds.idOf(sender);
+        if (roomId == NameRegistry.NO_ID || userId == NameRegistry.NO_ID) {
+            // Names the registry had no room for go out as text lines
+            deliver(room, line);
+            return;
+        }
+        WireMessage[] chat = new WireMessage[1];
+        forEachMember(room, client -> {
+            if (client.binaryProtocol) {
+                if (chat[0] == null) {
+                    chat[0] = WireMessage.broadcastFrame(BinaryProtocol.chat(roomId, userId, seq, text), false);
                 }
+                client.sendChat(roomId, room.getName(), userId, sender, chat[0]);
+            } else {
+                client.send(line.encodedFor(client));
             }
-        }
+        });
     }
     
     /**
-     * Broadcasts updated user list to all users in current room
+     * Send a line to every member of a room; runs on the room's shard
      */
-    private void broadcastUserListToRoom() {
-        if (currentRoom == null) return;
-        
-        String userList = ChatServer.getOnlineUsersList();
-        Set<ClientHandler> roomUsers = roomClients.getOrDefault(currentRoom, Collections.emptySet());
-        
-        for (ClientHandler client : new HashSet<>(roomUsers)) {
-            if (client.isConnected() && client.out != null) {
+    private static void deliver(Room room, Outgoing encoded) {
+        forEachMember(room, client -> client.send(encoded.encodedFor(client)));
+    }
+    
+    /**
+     * Run a delivery for every connected member of a room, dropping clients it
+     * fails for. Runs on the room's shard, so membership cannot change meanwhile.
+     */
+    private static void forEachMember(Room room, Consumer<ClientHandler> delivery) {
+        long start = System.nanoTime();
+        ClientHandler[] members = room.members();
+        for (ClientHandler client : members) {
+            if (client.isConnected()) {
                 try {
-                    client.out.println("[USERS]" + userList);
+                    delivery.accept(client);
                 } catch (Exception e) {
-                    System.err.println("❌ Error sending user list to " + client.username + ": " + e.getMessage());
-                    roomUsers.remove(client);
+                    Log.error("❌ Error sending to " + client.username + ": " + e.getMessage());
+                    // Leaves the room through a task queued behind this one
                     client.cleanup();
                 }
             }
         }
+        broadcastFanoutMicros.record((System.nanoTime() - start) / 1000);
+        broadcastRecipients.record(members.length);
+    }
+    
+    /**
+     * Messages currently queued for all clients in a room
+     */
+    static long totalOutboundDepth() {
+        long[] total = new long[1];
+        ChatServer.getRooms().forEachRoom(room -> {
+            for (ClientHandler client : room.members()) {
+                total[0] += client.outbound.depth();
+            }
+        });
+        return total[0];
+    }
+    
+    /**
+     * Deepest outbound queue of any client in a room
+     */
+    static long maxOutboundDepth() {
+        long[] max = new long[1];
+        ChatServer.getRooms().forEachRoom(room -> {
+            for (ClientHandler client : room.members()) {
+                max[0] = Math.max(max[0], client.outbound.depth());
+            }
+        });
+        return max[0];
+    }
+    
+    /**
+     * Close a connection that has sent nothing for the idle timeout; runs on the wheel's thread
+     */
+    private void closeIdle() {
+        if (!isConnected) return;
+        Log.info("💤 Closing idle connection: " + (username != null ? username : socket.getInetAddress()));
+        cleanup();
     }
     
     /**
      * Cleanup resources when client disconnects
      */
-    private void cleanup() {
+    void cleanup() {
+        if (!cleanedUp.compareAndSet(false, true)) return;
         isConnected = false;
+        idle.cancel();
+        releaseUserId();
+        outbound.close();
+        outboundHighWater.record(outbound.getHighWaterMark());
         leaveCurrentRoom();
+        SessionRegistry.Session current = session;
+        if (current != null) {
+            ChatServer.getSessions().detach(current, this);
+        }
         if (username != null) {
             ChatServer.removeUser(username);
-            System.out.println("🧹 Cleanup completed for: " + username);
+            Log.info("🧹 Cleanup completed for: " + username);
             username = null;
         } else {
-            System.out.println("🧹 Cleanup completed for unknown client");
+            Log.info("🧹 Cleanup completed for unknown client");
         }
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
+            clientSockets.remove(socket);
+            if (connection != null) connection.close();
+            // Closing the socket also closes its streams; unflushed output is discarded
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
-            clientSockets.remove(socket);
         } catch (IOException e) {
-            System.err.println("❌ Error cleaning up client resources: " + e.getMessage());
+            Log.error("❌ Error cleaning up client resources: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * A line sent to clients of either protocol; each encoding is built at most once
+     */
+    private static final class Outgoing {
+        private final String line;
+        private final boolean droppable;
+        private WireMessage text;
+        private WireMessage frame;
+        
+        Outgoing(String line, boolean droppable) {
+            this.line = line;
+            this.droppable = droppable;
+        }
+        
+        WireMessage encodedFor(ClientHandler client) {
+            if (client.binaryProtocol) {
+                if (frame == null) frame = WireMessage.broadcastFrame(BinaryProtocol.text(line), droppable);
+                return frame;
+            }
+            if (text == null) text = WireMessage.broadcast(line, droppable);
+            return text;
         }
     }
-}
\ No newline at end of file
+}
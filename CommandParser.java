@@ -0,0 +1,192 @@
+/**
+ * CommandParser - Allocation-free parser for inbound protocol lines.
+ *
+ * parse() classifies a line and records where its arguments start and end;
+ * it never creates substrings or compiles patterns. Callers extract only the
+ * strings they actually keep. One parser is reused for every line of a
+ * connection, so it must not be shared between threads.
+ */
+public final class CommandParser {
+    public enum Type {
+        JOIN_ROOM,     // [JOIN_ROOM] username room
+        GET_USERS,     // [GET_USERS]
+        TYPING,        // [TYPING] ...
+        ROOM_CHANGE,   // [ROOM_CHANGE] username room
+        RESUME,        // [RESUME] seq, applies to the next JOIN_ROOM or SESSION
+        SESSION,       // [SESSION] token
+        PING,          // PING, a heartbeat
+        ROOM_MESSAGE,  // [room] content
+        UNKNOWN
+    }
+
+    private static final String JOIN_ROOM = "[JOIN_ROOM] ";
+    private static final String GET_USERS = "[GET_USERS]";
+    private static final String TYPING = "[TYPING] ";
+    private static final String ROOM_CHANGE = "[ROOM_CHANGE] ";
+    private static final String RESUME = "[RESUME] ";
+    private static final String SESSION = "[SESSION] ";
+    private static final String PING = "PING";
+
+    private String line;
+    private Type type = Type.UNKNOWN;
+    private int start, end;
+    private int firstStart, firstEnd;
+    private int secondStart, secondEnd;
+    private boolean chat;
+
+    /**
+     * Classify a line, ignoring leading and trailing whitespace
+     * @return the command type; also available from getType()
+     */
+    public Type parse(String line) {
+        this.line = line;
+        start = skipWhitespace(line, 0, line.length());
+        end = trimEnd(line, start, line.length());
+        firstStart = firstEnd = secondStart = secondEnd = start;
+        chat = false;
+
+        if (start == end) {
+            type = Type.UNKNOWN;
+        } else if (startsWith(JOIN_ROOM)) {
+            parseTwoArguments(JOIN_ROOM.length());
+            type = Type.JOIN_ROOM;
+        } else if (end - start == GET_USERS.length() && startsWith(GET_USERS)) {
+            type = Type.GET_USERS;
+        } else if (startsWith(TYPING)) {
+            type = Type.TYPING;
+        } else if (startsWith(ROOM_CHANGE)) {
+            parseTwoArguments(ROOM_CHANGE.length());
+            type = Type.ROOM_CHANGE;
+        } else if (startsWith(RESUME)) {
+            parseTwoArguments(RESUME.length());
+            type = Type.RESUME;
+        } else if (startsWith(SESSION)) {
+            parseTwoArguments(SESSION.length());
+            type = Type.SESSION;
+        } else if (end - start == PING.length() && startsWith(PING)) {
+            type = Type.PING;
+        } else if (line.charAt(start) == '[') {
+            type = parseRoomMessage() ? Type.ROOM_MESSAGE : Type.UNKNOWN;
+        } else {
+            type = Type.UNKNOWN;
+        }
+        return type;
+    }
+
+    /**
+     * Split the rest of the line into a first word and everything after it
+     */
+    private void parseTwoArguments(int prefixLength) {
+        firstStart = skipWhitespace(line, start + prefixLength, end);
+        firstEnd = firstStart;
+        while (firstEnd < end && !Character.isWhitespace(line.charAt(firstEnd))) {
+            firstEnd++;
+        }
+        secondStart = skipWhitespace(line, firstEnd, end);
+        secondEnd = end;
+    }
+
+    /**
+     * Room name between the brackets, content after them
+     */
+    private boolean parseRoomMessage() {
+        int bracket = line.indexOf(']', start + 1);
+        if (bracket < 0 || bracket >= end) return false;
+
+        firstStart = skipWhitespace(line, start + 1, bracket);
+        firstEnd = trimEnd(line, firstStart, bracket);
+        secondStart = skipWhitespace(line, bracket + 1, end);
+        secondEnd = end;
+
+        // Chat messages carry "user: text"; other room-tagged lines are only relayed
+        for (int i = secondStart; i < secondEnd; i++) {
+            if (line.charAt(i) == ':') {
+                chat = true;
+                break;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(String prefix) {
+        return end - start >= prefix.length() && line.startsWith(prefix, start);
+    }
+
+    private static int skipWhitespace(String s, int from, int to) {
+        while (from < to && s.charAt(from) <= ' ') from++;
+        return from;
+    }
+
+    private static int trimEnd(String s, int from, int to) {
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * True if the line was empty or whitespace only
+     */
+    public boolean isEmpty() {
+        return start == end;
+    }
+
+    /**
+     * True if both arguments are present
+     */
+    public boolean hasArguments() {
+        return firstEnd > firstStart && secondEnd > secondStart;
+    }
+
+    /**
+     * The line without surrounding whitespace
+     */
+    public String line() {
+        return start == 0 && end == line.length() ? line : line.substring(start, end);
+    }
+
+    /**
+     * Username of JOIN_ROOM and ROOM_CHANGE, room of ROOM_MESSAGE
+     */
+    public String first() {
+        return line.substring(firstStart, firstEnd);
+    }
+
+    /**
+     * Room of JOIN_ROOM and ROOM_CHANGE, content of ROOM_MESSAGE
+     */
+    public String second() {
+        return line.substring(secondStart, secondEnd);
+    }
+
+    /**
+     * The first argument as a non-negative number, e.g. the sequence of RESUME
+     * @return the number, or -1 if the argument is not one
+     */
+    public long firstAsLong() {
+        if (firstEnd == firstStart || firstEnd - firstStart > 18) return -1;
+        long value = 0;
+        for (int i = firstStart; i < firstEnd; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Whether the first argument equals s, without extracting it
+     */
+    public boolean firstEquals(String s) {
+        return s != null && s.length() == firstEnd - firstStart && line.startsWith(s, firstStart);
+    }
+
+    /**
+     * True for room messages whose content contains a colon ("user: text")
+     */
+    public boolean isChat() {
+        return chat;
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram - Lock-free, fixed-memory histogram of non-negative long values.
+ *
+ * Values are bucketed log-linearly like HdrHistogram: every power-of-two
+ * range is split into SUB_BUCKETS equal slices, so any recorded value is
+ * reported with at most 1/SUB_BUCKETS relative error. Recording is a couple
+ * of atomic increments and never allocates.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one value; negative values are counted as zero
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until max is at least value
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Estimate the value at a percentile
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding that percentile, capped at the max seen
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * One-line summary, dividing values by scale (e.g. 1000 to show microseconds as milliseconds)
+     */
+    public String summary(double scale, String unit) {
+        return String.format("count=%d mean=%.2f%s p50=%.2f%s p99=%.2f%s p999=%.2f%s max=%.2f%s",
+            getCount(),
+            getMean() / scale, unit,
+            getPercentile(50) / scale, unit,
+            getPercentile(99) / scale, unit,
+            getPercentile(99.9) / scale, unit,
+            getMax() / scale, unit);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
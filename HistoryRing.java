@@ -0,0 +1,111 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * HistoryRing - Fixed-capacity ring of a room's most recent messages.
+ *
+ * Every message gets a monotonically increasing sequence number, which is
+ * also its offset in the room's on-disk log. There is a single writer at a
+ * time; readers never lock. Each slot stores its sequence next to the
+ * message, and a reader only accepts a slot if the sequence is unchanged
+ * before and after it reads the message, so a snapshot taken while the
+ * writer laps the ring simply skips the overwritten slots.
+ */
+public class HistoryRing {
+    private static final long EMPTY = -1;
+
+    private final int capacity;
+    private final AtomicReferenceArray<String> messages;
+    private final AtomicLongArray sequences;
+    private final long firstSequence;
+
+    // Sequence the next append will get; written only by the appending thread
+    private volatile long nextSequence;
+
+    /**
+     * @param capacity maximum number of messages kept
+     * @param firstSequence sequence number of the first message appended
+     */
+    public HistoryRing(int capacity, long firstSequence) {
+        this.capacity = Math.max(1, capacity);
+        this.messages = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.firstSequence = firstSequence;
+        this.nextSequence = firstSequence;
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Append a message. Callers must not append to the same ring concurrently.
+     * @return the sequence number assigned to the message
+     */
+    public long append(String message) {
+        long sequence = nextSequence;
+        int slot = slot(sequence);
+
+        // Invalidate the slot first so readers never pair the old sequence with the new message
+        sequences.set(slot, EMPTY);
+        messages.set(slot, message);
+        sequences.set(slot, sequence);
+
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * Copy up to limit of the most recent messages, oldest first
+     */
+    public List<String> recent(int limit) {
+        long end = nextSequence;
+        return copyRange(Math.max(end - limit, firstSequence), end);
+    }
+
+    /**
+     * Copy the messages after a sequence number, at most limit of the most
+     * recent, oldest first. Slots are only ever lost from the old end, so the
+     * copy is contiguous and ends with the newest message.
+     * @param afterSequence last sequence the reader already has, or -1 for none
+     */
+    public RoomLog.Tail since(long afterSequence, int limit) {
+        long end = nextSequence;
+        List<String> copy = copyRange(Math.max(Math.max(end - limit, firstSequence), afterSequence + 1), end);
+        return new RoomLog.Tail(copy, end);
+    }
+
+    /**
+     * Sequence number of the newest message, or firstSequence - 1 if empty
+     */
+    public long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    public int size() {
+        return (int) Math.min(nextSequence - firstSequence, capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private List<String> copyRange(long from, long to) {
+        // Anything older than one full lap has already been overwritten
+        from = Math.max(from, to - capacity);
+        List<String> copy = new ArrayList<>((int) Math.max(0, to - from));
+
+        for (long sequence = from; sequence < to; sequence++) {
+            int slot = slot(sequence);
+            if (sequences.get(slot) != sequence) continue;
+            String message = messages.get(slot);
+            if (sequences.get(slot) != sequence) continue;
+            copy.add(message);
+        }
+        return copy;
+    }
+
+    private int slot(long sequence) {
+        return (int) Math.floorMod(sequence, (long) capacity);
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * HistoryWriter - Group-commit persistence stage for chat history.
+ *
+ * Producers enqueue (room, message) records on a lock-free queue and return
+ * immediately. A single writer thread drains the queue in batches, appends
+ * each room's share of a batch with one gathering write, and forces every
+ * touched log at most once per batch. Room logs are owned by that thread.
+ */
+public class HistoryWriter {
+    private static final int MAX_BATCH = 4096;
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, RoomLog> roomLogs = new HashMap<>();
+    private final Set<String> writtenSinceCompaction = new HashSet<>();
+    private final Map<String, Long> writtenOffsets = new ConcurrentHashMap<>();
+    private final Function<String, Path> roomDirectory;
+    private final ChatHistoryManager.FsyncPolicy fsyncPolicy;
+    private final long maxSegmentBytes;
+    private final long retainedMessages;
+    private final long compactionIntervalNanos;
+    private Thread thread; // Set by start() before the writer is shared
+
+    private volatile boolean running = true;
+    private volatile boolean idle = false;
+
+    // Statistics
+    private final Histogram batchSizes = Metrics.histogram("history.batch_size");
+    private final Histogram commitLatencyMicros = Metrics.histogram("history.commit_latency_us");
+    private final Histogram appendMicros = Metrics.histogram("history.append_us");
+    private final Histogram fsyncMicros = Metrics.histogram("history.fsync_us");
+
+    private static final class Record {
+        final String room;
+        final String message;
+        final long enqueuedAt;
+
+        Record(String room, String message) {
+            this.room = room;
+            this.message = message;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private HistoryWriter(Function<String, Path> roomDirectory, ChatHistoryManager.FsyncPolicy fsyncPolicy,
+                          long maxSegmentBytes, long retainedMessages, long compactionIntervalMillis) {
+        this.roomDirectory = roomDirectory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.retainedMessages = retainedMessages;
+        this.compactionIntervalNanos = TimeUnit.MILLISECONDS.toNanos(compactionIntervalMillis);
+    }
+
+    /**
+     * Create a writer and start its thread
+     * @param roomDirectory maps a room name to its log directory
+     * @param fsyncPolicy when appended messages are forced to disk
+     * @param maxSegmentBytes size at which a room log rolls to a new segment
+     * @param retainedMessages messages per room kept on disk by compaction
+     * @param compactionIntervalMillis how often compaction runs
+     */
+    public static HistoryWriter start(Function<String, Path> roomDirectory, ChatHistoryManager.FsyncPolicy fsyncPolicy,
+                                      long maxSegmentBytes, long retainedMessages, long compactionIntervalMillis) {
+        HistoryWriter writer = new HistoryWriter(roomDirectory, fsyncPolicy, maxSegmentBytes,
+            retainedMessages, compactionIntervalMillis);
+        writer.thread = new Thread(writer::run, "chat-history-writer");
+        writer.thread.setDaemon(true);
+        writer.thread.start();
+        return writer;
+    }
+
+    /**
+     * Queue a message for persistence. Never blocks.
+     * @return false if the writer has been shut down
+     */
+    public boolean enqueue(String room, String message) {
+        if (!running) return false;
+
+        queue.offer(new Record(room, message));
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Write everything still queued, sync and close all logs, and stop the writer thread
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MS);
+            if (thread.isAlive()) {
+                Log.warn("Timed out waiting for chat history to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Offset following the last message of a room that has been written to its log
+     * @return 0 if nothing has been written for the room since startup or since it was forgotten
+     */
+    public long getWrittenOffset(String room) {
+        return writtenOffsets.getOrDefault(room, 0L);
+    }
+
+    /**
+     * Forget a room's written offset, e.g. once its history was evicted; the
+     * room's next load reads the offset from its log instead
+     * @param offset the offset the caller saw; an offset written since is kept
+     */
+    public void forgetWrittenOffset(String room, long offset) {
+        writtenOffsets.remove(room, offset);
+    }
+
+    /**
+     * Batch size and commit latency summaries
+     */
+    public String getStats() {
+        return String.format(
+            "• History batch size: %s%n" +
+            "• History commit latency: %s%n" +
+            "• History queue: %d pending",
+            batchSizes.summary(1, ""),
+            commitLatencyMicros.summary(1000, "ms"),
+            queue.size()
+        );
+    }
+
+    private void run() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        long now = System.nanoTime();
+        long nextSync = fsyncPolicy.intervalMillis > 0 ? now + TimeUnit.MILLISECONDS.toNanos(fsyncPolicy.intervalMillis) : Long.MAX_VALUE;
+        long nextCompaction = now + compactionIntervalNanos;
+
+        while (true) {
+            Record record;
+            while (batch.size() < MAX_BATCH && (record = queue.poll()) != null) {
+                batch.add(record);
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+
+            now = System.nanoTime();
+            if (now - nextSync >= 0) {
+                syncAll();
+                nextSync = now + TimeUnit.MILLISECONDS.toNanos(fsyncPolicy.intervalMillis);
+            }
+            if (now - nextCompaction >= 0) {
+                compactAll();
+                nextCompaction = now + compactionIntervalNanos;
+            }
+
+            if (!queue.isEmpty()) continue;
+            if (!running) break;
+
+            // Park until a producer wakes us or the next periodic task is due
+            idle = true;
+            if (queue.isEmpty() && running) {
+                long due = Math.min(nextSync, nextCompaction) - System.nanoTime();
+                LockSupport.parkNanos(this, Math.max(1, Math.min(due, MAX_PARK_NANOS)));
+            }
+            idle = false;
+        }
+
+        closeAll();
+    }
+
+    /**
+     * Append a batch grouped by room, then force each touched log according to the fsync policy
+     */
+    private void commit(List<Record> batch) {
+        Map<String, List<String>> byRoom = new LinkedHashMap<>();
+        for (Record record : batch) {
+            byRoom.computeIfAbsent(record.room, _ -> new ArrayList<>()).add(record.message);
+        }
+
+        for (Map.Entry<String, List<String>> entry : byRoom.entrySet()) {
+            String room = entry.getKey();
+            try {
+                RoomLog log = logFor(room);
+                long appendStart = System.nanoTime();
+                log.appendAll(entry.getValue());
+                appendMicros.record((System.nanoTime() - appendStart) / 1000);
+                writtenOffsets.put(room, log.getNextOffset());
+                writtenSinceCompaction.add(room);
+                if (fsyncPolicy.everyBatch
+                        || (fsyncPolicy.everyMessages > 0 && log.getUnsyncedCount() >= fsyncPolicy.everyMessages)) {
+                    sync(log);
+                }
+            } catch (IOException e) {
+                Log.error("Failed to save chat history for room " + room + ": " + e.getMessage());
+            }
+        }
+
+        long committedAt = System.nanoTime();
+        batchSizes.record(batch.size());
+        for (Record record : batch) {
+            commitLatencyMicros.record((committedAt - record.enqueuedAt) / 1000);
+        }
+    }
+
+    private RoomLog logFor(String room) throws IOException {
+        RoomLog log = roomLogs.get(room);
+        if (log == null) {
+            log = RoomLog.open(roomDirectory.apply(room), maxSegmentBytes);
+            roomLogs.put(room, log);
+        }
+        return log;
+    }
+
+    private void sync(RoomLog log) throws IOException {
+        if (log.getUnsyncedCount() == 0) return;
+        long start = System.nanoTime();
+        log.sync();
+        fsyncMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void syncAll() {
+        for (Map.Entry<String, RoomLog> entry : roomLogs.entrySet()) {
+            try {
+                sync(entry.getValue());
+            } catch (IOException e) {
+                Log.error("Failed to sync chat history for room " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Enforce retention, and close logs of rooms that saw no messages since the last pass
+     */
+    private void compactAll() {
+        Iterator<Map.Entry<String, RoomLog>> it = roomLogs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, RoomLog> entry = it.next();
+            try {
+                entry.getValue().compact(retainedMessages);
+                if (!writtenSinceCompaction.contains(entry.getKey())) {
+                    entry.getValue().close();
+                    it.remove();
+                }
+            } catch (IOException e) {
+                Log.error("Failed to compact chat history for room " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        writtenSinceCompaction.clear();
+    }
+
+    private void closeAll() {
+        for (Map.Entry<String, RoomLog> entry : roomLogs.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                Log.error("Failed to close chat history for room " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        roomLogs.clear();
+    }
+}
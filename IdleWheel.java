@@ -0,0 +1,153 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IdleWheel - Closes connections that have been silent for too long, using
+ * one hashed timing wheel instead of a read timeout on every socket.
+ *
+ * Every connection has one entry, filed in the bucket of the tick at which
+ * it would time out. Receiving something only records the current tick in
+ * the entry and never touches the wheel. A single thread advances the wheel
+ * once per tick and visits just the bucket that is due: entries that heard
+ * from their client since they were filed move on to their new deadline,
+ * and the rest are evicted. A connection therefore costs one volatile write
+ * per message and about one visit per timeout, and a quiet socket never
+ * needs a timer or an exception of its own.
+ */
+public class IdleWheel {
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final long timeoutTicks;
+    private final Entry[] buckets; // Linked through Entry.next; wheel thread only
+    private final int mask;
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService ticker;
+    private volatile long tick = 0;
+
+    // Statistics
+    private final LongAdder evicted = Metrics.counter("connections.idle_evicted");
+
+    /**
+     * One connection's place in the wheel
+     */
+    public final class Entry {
+        private final Runnable onIdle;
+        private volatile long lastActive;
+        private volatile boolean cancelled = false;
+        private long deadline; // Wheel thread only
+        private Entry next;
+
+        private Entry(Runnable onIdle) {
+            this.onIdle = onIdle;
+            this.lastActive = tick;
+        }
+
+        /**
+         * Note that the connection received something
+         */
+        public void touch() {
+            lastActive = tick;
+        }
+
+        /**
+         * Stop tracking the connection, e.g. because it closed; the entry
+         * leaves the wheel when its bucket comes round
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * @param timeoutMillis how long a connection may stay silent
+     * @param tickMillis how often the wheel advances, i.e. how late an eviction may be
+     */
+    public IdleWheel(long timeoutMillis, long tickMillis) {
+        this.timeoutTicks = Math.max(1, (timeoutMillis + tickMillis - 1) / tickMillis);
+
+        // One lap covers the timeout, so a bucket mostly holds entries that are due
+        int size = 1;
+        while (size <= timeoutTicks && size < MAX_BUCKETS) {
+            size <<= 1;
+        }
+        this.buckets = new Entry[size];
+        this.mask = size - 1;
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start tracking a connection
+     * @param onIdle runs on the wheel's thread once the connection has been silent for the timeout
+     */
+    public Entry register(Runnable onIdle) {
+        Entry entry = new Entry(onIdle);
+        added.add(entry);
+        return entry;
+    }
+
+    /**
+     * Move to the next tick and handle the entries due in it
+     */
+    private void advance() {
+        long now = tick + 1;
+        tick = now;
+
+        Entry entry;
+        while ((entry = added.poll()) != null) {
+            file(entry, entry.lastActive + timeoutTicks, now);
+        }
+
+        int index = (int) (now & mask);
+        entry = buckets[index];
+        buckets[index] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            if (!entry.cancelled) {
+                if (entry.deadline > now) {
+                    // Due on a later lap
+                    file(entry, entry.deadline, now);
+                } else if (entry.lastActive + timeoutTicks > now) {
+                    file(entry, entry.lastActive + timeoutTicks, now);
+                } else {
+                    evict(entry);
+                }
+            }
+            entry = next;
+        }
+    }
+
+    private void file(Entry entry, long deadline, long now) {
+        entry.deadline = Math.max(deadline, now + 1);
+        int index = (int) (entry.deadline & mask);
+        entry.next = buckets[index];
+        buckets[index] = entry;
+    }
+
+    private void evict(Entry entry) {
+        evicted.increment();
+        try {
+            entry.onIdle.run();
+        } catch (Exception e) {
+            Log.error("❌ Closing idle connection failed: " + e.getMessage(), e);
+        }
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public String getStats() {
+        return String.format("• Idle connections closed: %d", evicted.sum());
+    }
+}
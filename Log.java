@@ -0,0 +1,241 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log - Asynchronous, level-gated server log.
+ *
+ * Callers only claim a slot in a bounded lock-free ring and return; a
+ * single flusher thread formats timestamps and writes whole batches to
+ * stdout (DEBUG, INFO) or stderr (WARN, ERROR). A disabled level costs one
+ * volatile read. When the ring is full, entries are dropped and counted
+ * rather than blocking the caller.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+    private static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static volatile int threshold = Level.INFO.ordinal();
+
+    // Multi-producer, single-consumer ring; a null slot has not been published yet
+    private static final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head = 0;
+    private static final LongAdder dropped = new LongAdder();
+
+    private static volatile boolean running = true;
+    private static volatile boolean idle = false;
+    private static final Thread flusher;
+
+    // Only touched by the flusher thread
+    private static long cachedSecond = Long.MIN_VALUE;
+    private static String cachedTimestamp;
+    private static long reportedDropped = 0;
+
+    static {
+        flusher = new Thread(Log::flushLoop, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String message;
+        final Throwable error;
+
+        Entry(long time, Level level, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    /**
+     * Parse a level name such as "debug" or "WARN"
+     */
+    public static Level parseLevel(String name) {
+        return Level.valueOf(name.trim().toUpperCase());
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Guard for per-message logging, so the message is not even built when disabled
+     */
+    public static boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public static void debug(String message) {
+        publish(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        publish(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        publish(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        publish(Level.ERROR, message, null);
+    }
+
+    /**
+     * Log an error followed by the stack trace of its cause
+     */
+    public static void error(String message, Throwable error) {
+        publish(Level.ERROR, message, error);
+    }
+
+    /**
+     * Entries dropped because the ring was full
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write everything still queued and stop the flusher. Later entries are written synchronously.
+     */
+    public static void shutdown() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void publish(Level level, String message, Throwable error) {
+        if (level.ordinal() < threshold) return;
+
+        Entry entry = new Entry(System.currentTimeMillis(), level, message, error);
+        if (!running) {
+            StringBuilder line = new StringBuilder();
+            format(entry, line, TIMESTAMP.format(Instant.ofEpochMilli(entry.time)));
+            (level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out).print(line);
+            return;
+        }
+
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+
+        slots.set((int) (claimed & MASK), entry);
+        if (idle) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private static void flushLoop() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+
+        while (true) {
+            boolean wrote = drain(out, err);
+            if (wrote) continue;
+            if (!running) break;
+
+            // Park until a producer wakes us; re-check so a publish racing with idle is not missed
+            idle = true;
+            if (slots.get((int) (head & MASK)) == null && running) {
+                LockSupport.parkNanos(Log.class, MAX_PARK_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    /**
+     * Format every published entry and write each stream once
+     * @return true if anything was written
+     */
+    private static boolean drain(StringBuilder out, StringBuilder err) {
+        long position = head;
+        Entry entry;
+        while ((entry = slots.get((int) (position & MASK))) != null) {
+            slots.set((int) (position & MASK), null);
+            head = ++position;
+            format(entry, entry.level.ordinal() >= Level.WARN.ordinal() ? err : out, timestamp(entry.time));
+        }
+
+        long droppedNow = dropped.sum();
+        if (droppedNow != reportedDropped) {
+            long now = System.currentTimeMillis();
+            format(new Entry(now, Level.WARN, "⚠️ " + (droppedNow - reportedDropped) + " log messages dropped", null),
+                err, timestamp(now));
+            reportedDropped = droppedNow;
+        }
+
+        boolean wrote = false;
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+            out.setLength(0);
+            wrote = true;
+        }
+        if (err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+            err.setLength(0);
+            wrote = true;
+        }
+        return wrote;
+    }
+
+    private static void format(Entry entry, StringBuilder line, String timestamp) {
+        line.append('[').append(timestamp).append("] ").append(entry.message).append(System.lineSeparator());
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    /**
+     * Format a timestamp on the flusher thread, reusing the previous result within the same second
+     */
+    private static String timestamp(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedTimestamp = TIMESTAMP.format(Instant.ofEpochMilli(millis));
+            cachedSecond = second;
+        }
+        return cachedTimestamp;
+    }
+}
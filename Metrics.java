@@ -0,0 +1,109 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics - Process-wide registry of counters, gauges and histograms.
+ *
+ * Counters are LongAdders and histograms are lock-free, so recording never
+ * blocks. Hot paths should look a metric up once and keep the reference.
+ * Counters may carry one label (e.g. a room name) for per-key breakdowns.
+ * Histogram names ending in "_us" hold microseconds and are shown in ms.
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongAdder>> labelledCounters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    // Counter values at the previous snapshot, used to report rates
+    private static final ReentrantLock snapshotLock = new ReentrantLock();
+    private static final Map<String, Long> previousCounts = new HashMap<>();
+    private static long previousSnapshotNanos = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, _ -> new LongAdder());
+    }
+
+    /**
+     * Counter broken down by one label value, such as a room name
+     */
+    public static LongAdder counter(String name, String label) {
+        return labelledCounters.computeIfAbsent(name, _ -> new ConcurrentHashMap<>())
+            .computeIfAbsent(label, _ -> new LongAdder());
+    }
+
+    /**
+     * Forget one label of a counter, e.g. once its room is gone, so labels
+     * chosen by clients do not pile up
+     */
+    public static void removeCounter(String name, String label) {
+        Map<String, LongAdder> family = labelledCounters.get(name);
+        if (family == null || family.remove(label) == null) return;
+
+        snapshotLock.lock();
+        try {
+            previousCounts.remove(name + "{" + label + "}");
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Register a value read at snapshot time
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, _ -> new Histogram());
+    }
+
+    /**
+     * Human-readable dump of every metric. Counters also show their rate
+     * per second since the previous snapshot.
+     */
+    public static String snapshot() {
+        snapshotLock.lock();
+        try {
+            long now = System.nanoTime();
+            double elapsedSeconds = Math.max(1e-3, (now - previousSnapshotNanos) / 1e9);
+            previousSnapshotNanos = now;
+
+            StringBuilder out = new StringBuilder("📈 Metrics:");
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+                appendCounter(out, entry.getKey(), entry.getValue().sum(), elapsedSeconds);
+            }
+            for (Map.Entry<String, Map<String, LongAdder>> family : new TreeMap<>(labelledCounters).entrySet()) {
+                for (Map.Entry<String, LongAdder> entry : new TreeMap<>(family.getValue()).entrySet()) {
+                    appendCounter(out, family.getKey() + "{" + entry.getKey() + "}", entry.getValue().sum(), elapsedSeconds);
+                }
+            }
+            for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+                out.append(String.format("%n• %s: %d", entry.getKey(), entry.getValue().getAsLong()));
+            }
+            for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+                String name = entry.getKey();
+                String summary = name.endsWith("_us")
+                    ? entry.getValue().summary(1000, "ms")
+                    : entry.getValue().summary(1, "");
+                out.append(String.format("%n• %s: %s", name, summary));
+            }
+            return out.toString();
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private static void appendCounter(StringBuilder out, String name, long value, double elapsedSeconds) {
+        Long previous = previousCounts.put(name, value);
+        double rate = (value - (previous != null ? previous : 0)) / elapsedSeconds;
+        out.append(String.format("%n• %s: %d (%.1f/s)", name, value, rate));
+    }
+}
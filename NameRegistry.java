@@ -0,0 +1,142 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * NameRegistry - Interns names as small integer IDs for the binary protocol.
+ *
+ * Names are chosen by clients, so the registry holds at most a fixed
+ * number of them and reuses IDs. A name is held while something live uses
+ * it, e.g. an open room or a connected user; names nobody holds any more
+ * keep their ID until it is needed for a new name, oldest first. An ID
+ * therefore stands for one name at a time only, and whoever tells a client
+ * about an ID must pass the name along so the client can be told again
+ * when the ID changes hands. Only when every ID is held do new names go
+ * without one and travel as plain text lines instead.
+ */
+public class NameRegistry {
+    /** Returned for names the registry has no ID for */
+    public static final int NO_ID = -1;
+
+    private final int capacity;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Entry> unheld = new ArrayDeque<>(); // Candidates for reuse; guarded by lock
+    private int nextId = 0; // guarded by lock
+    private final LongAdder rejected;
+    private final LongAdder recycled;
+
+    private static final class Entry {
+        final String name;
+        final int id;
+        int holders = 0; // guarded by lock
+        boolean queued = false; // In unheld; guarded by lock
+
+        Entry(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param kind what the names are, used to label the metrics
+     * @param capacity how many names may have an ID at once
+     */
+    public NameRegistry(String kind, int capacity) {
+        this.capacity = capacity;
+        this.rejected = Metrics.counter("names.rejected", kind);
+        this.recycled = Metrics.counter("names.recycled", kind);
+    }
+
+    /**
+     * Current ID of a name, assigning one on first use without holding it
+     * @return the ID, or NO_ID if every ID is held
+     */
+    public int idOf(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) return entry.id;
+
+        lock.lock();
+        try {
+            entry = entryFor(name);
+            if (entry == null) return NO_ID;
+            if (entry.holders == 0) queueUnheld(entry);
+            return entry.id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * ID of a name, kept for it until every acquire has been released
+     * @return the ID, or NO_ID if every ID is held; nothing needs releasing then
+     */
+    public int acquire(String name) {
+        lock.lock();
+        try {
+            Entry entry = entryFor(name);
+            if (entry == null) return NO_ID;
+            entry.holders++;
+            return entry.id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give up one hold on a name acquired earlier; once nobody holds it, its ID may go to another name
+     */
+    public void release(String name) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(name);
+            if (entry == null || entry.holders == 0) return;
+            if (--entry.holders == 0) queueUnheld(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Existing entry of a name, or a new one with a fresh or reused ID. Called with the lock held.
+     * @return null if every ID is held
+     */
+    private Entry entryFor(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) return entry;
+
+        int id;
+        if (nextId < capacity) {
+            id = nextId++;
+        } else {
+            Entry victim;
+            while ((victim = unheld.poll()) != null) {
+                victim.queued = false;
+                if (victim.holders == 0) break;
+            }
+            if (victim == null) {
+                rejected.increment();
+                return null;
+            }
+            entries.remove(victim.name);
+            recycled.increment();
+            id = victim.id;
+        }
+        entry = new Entry(name, id);
+        entries.put(name, entry);
+        return entry;
+    }
+
+    private void queueUnheld(Entry entry) {
+        if (!entry.queued) {
+            entry.queued = true;
+            unheld.add(entry);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NioConnection - Per-socket state for the non-blocking server mode.
+ * Owns the read buffer used for newline (or, once negotiated, binary)
+ * framing and drains the handler's outbound queue from the connection's
+ * reactor thread.
+ */
+public class NioConnection {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_GATHER = 16;
+
+    private final SocketChannel channel;
+    private final Executor reactor;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // Only touched from the reactor thread
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private int scanPosition = 0;
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_GATHER];
+    private int batchStart = 0;
+    private int batchEnd = 0;
+    private SelectionKey key;
+    private ClientHandler handler;
+
+    public NioConnection(SocketChannel channel, Executor reactor) {
+        this.channel = channel;
+        this.reactor = reactor;
+    }
+
+    /**
+     * Attach the selection key and handler once the channel is registered
+     */
+    void bind(SelectionKey key, ClientHandler handler) {
+        this.key = key;
+        this.handler = handler;
+    }
+
+    public Socket socket() {
+        return channel.socket();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Ask the reactor to drain the handler's outbound queue. Safe to call from any thread.
+     */
+    public void requestFlush() {
+        if (closed.get()) return;
+        if (flushScheduled.compareAndSet(false, true)) {
+            reactor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Read available bytes and dispatch every complete line to the handler
+     */
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            handler.cleanup();
+            return;
+        }
+
+        byte[] data = readBuffer.array();
+        int limit = readBuffer.position();
+        int consumed = 0;
+        while (consumed < limit) {
+            // The handler may switch to binary frames after any line
+            int next = handler.isBinaryProtocol()
+                ? dispatchFrame(data, consumed, limit)
+                : dispatchLine(data, consumed, limit);
+            if (next < 0) return;
+            if (next == consumed) break;
+            consumed = next;
+        }
+
+        // Keep the partial line or frame at the front of the buffer
+        readBuffer.flip();
+        readBuffer.position(consumed);
+        readBuffer.compact();
+        scanPosition = readBuffer.position();
+
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+                Log.error("❌ Message too long from " + socket().getInetAddress() + ", closing connection");
+                handler.cleanup();
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_LINE_LENGTH));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * Dispatch the next complete line
+     * @return the offset after the line, start if no line is complete yet, or -1 if the connection closed
+     */
+    private int dispatchLine(byte[] data, int start, int limit) {
+        for (int i = Math.max(start, scanPosition); i < limit; i++) {
+            if (data[i] != '\n') continue;
+
+            int lineEnd = (i > start && data[i - 1] == '\r') ? i - 1 : i;
+            String line = new String(data, start, lineEnd - start, StandardCharsets.UTF_8);
+
+            if (!handler.processLine(line)) {
+                handler.cleanup();
+                return -1;
+            }
+            return closed.get() ? -1 : i + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Dispatch the next complete binary protocol frame
+     * @return the offset after the frame, start if no frame is complete yet, or -1 if the connection closed
+     */
+    private int dispatchFrame(byte[] data, int start, int limit) {
+        ByteBuffer frame = ByteBuffer.wrap(data, start, limit - start);
+        int length;
+        try {
+            length = BinaryProtocol.readFrameHeader(frame);
+        } catch (IllegalArgumentException e) {
+            Log.error("❌ " + e.getMessage() + " from " + socket().getInetAddress() + ", closing connection");
+            handler.cleanup();
+            return -1;
+        }
+        if (length < 0 || frame.remaining() < length) return start;
+
+        int bodyStart = frame.position();
+        if (!handler.processFrame(frame.slice(bodyStart, length))) {
+            handler.cleanup();
+            return -1;
+        }
+        return closed.get() ? -1 : bodyStart + length;
+    }
+
+    /**
+     * Continue a write that previously filled the socket send buffer
+     */
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Write as much of the queue as the socket accepts; runs on the reactor thread
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed.get() || key == null || !key.isValid()) return;
+
+        OutboundQueue outbound = handler.getOutboundQueue();
+        try {
+            while (true) {
+                if (batchStart == batchEnd) {
+                    // Previous batch fully written; gather the next few messages
+                    batchStart = 0;
+                    batchEnd = 0;
+                    WireMessage message;
+                    while (batchEnd < MAX_GATHER && (message = outbound.poll()) != null) {
+                        writeBatch[batchEnd++] = message.view();
+                    }
+                    if (batchEnd == 0) break;
+                }
+
+                channel.write(writeBatch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !writeBatch[batchStart].hasRemaining()) {
+                    writeBatch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    // Socket buffer is full; resume when the selector reports it writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException | CancelledKeyException e) {
+            handler.cleanup();
+        }
+    }
+
+    /**
+     * Close the channel. Only the first call has any effect.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("❌ Error closing channel: " + e.getMessage());
+        }
+        ChatServer.connectionClosed();
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue - Bounded queue of messages waiting to be written to one
+ * client. Senders never block on it: when it is full the configured
+ * overflow policy decides what gets dropped, or whether the client is
+ * too slow to keep.
+ */
+public class OutboundQueue {
+    /**
+     * What to do when a message arrives and the queue is full
+     */
+    public enum OverflowPolicy {
+        /** Discard the oldest queued message */
+        DROP_OLDEST,
+        /** Discard a queued typing indicator first, then the oldest message */
+        DROP_TYPING,
+        /** Refuse the message so the caller disconnects the client */
+        DISCONNECT;
+
+        public static OverflowPolicy fromString(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    // Server-wide counters
+    private static final LongAdder queuedMessages = new LongAdder();
+    private static final LongAdder droppedMessages = new LongAdder();
+    private static final AtomicLong overflowDisconnects = new AtomicLong(0);
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<WireMessage> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed = false;
+    private long dropped = 0;
+    private int highWaterMark = 0;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Queue a message for delivery. Droppable messages (typing indicators)
+     * are the first to go under the DROP_TYPING policy.
+     * @return false if the queue is closed or the DISCONNECT policy rejected the message
+     */
+    public boolean offer(WireMessage message) {
+        lock.lock();
+        try {
+            if (closed) return false;
+
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DISCONNECT:
+                        overflowDisconnects.incrementAndGet();
+                        return false;
+                    case DROP_TYPING:
+                        if (message.isDroppable()) {
+                            // Never evict real messages to make room for a typing indicator
+                            recordDrop();
+                            return true;
+                        }
+                        if (!removeFirstDroppable()) {
+                            removeOldest();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                    default:
+                        removeOldest();
+                        break;
+                }
+            }
+
+            queue.addLast(message);
+            queuedMessages.increment();
+            highWaterMark = Math.max(highWaterMark, queue.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next message without waiting
+     * @return the message, or null if the queue is empty
+     */
+    public WireMessage poll() {
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next message
+     * @return the message, or null once the queue has been closed
+     */
+    public WireMessage take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard pending messages and wake up the writer
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queuedMessages.add(-queue.size());
+            queue.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Current number of queued messages
+     */
+    public int depth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Messages currently queued across all clients
+     */
+    public static long totalQueued() {
+        return queuedMessages.sum();
+    }
+
+    /**
+     * Messages dropped by overflow policies across all clients
+     */
+    public static long totalDropped() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Clients refused by the DISCONNECT policy
+     */
+    public static long totalOverflowDisconnects() {
+        return overflowDisconnects.get();
+    }
+
+    private WireMessage next() {
+        WireMessage message = queue.pollFirst();
+        if (message == null) return null;
+        queuedMessages.decrement();
+        return message;
+    }
+
+    private void removeOldest() {
+        if (queue.pollFirst() != null) {
+            queuedMessages.decrement();
+            recordDrop();
+        }
+    }
+
+    private boolean removeFirstDroppable() {
+        Iterator<WireMessage> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDroppable()) {
+                it.remove();
+                queuedMessages.decrement();
+                recordDrop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordDrop() {
+        dropped++;
+        droppedMessages.increment();
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PresenceIndex - Two-way index of online users: user → room and
+ * room → members.
+ *
+ * All changes for one user run inside a compute on that user's entry, so a
+ * user is never listed in two rooms, and room member sets are created and
+ * removed atomically with their first and last member. Looking up a room's
+ * members costs O(room size) and counting rooms is O(1).
+ */
+public class PresenceIndex {
+    private final Map<String, String> userRooms = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> roomMembers = new ConcurrentHashMap<>();
+
+    /**
+     * Put a user in a room, taking them out of their previous room
+     * @return the previous room, or null if the user was not online
+     */
+    public String move(String username, String room) {
+        String[] previous = new String[1];
+        userRooms.compute(username, (user, oldRoom) -> {
+            previous[0] = oldRoom;
+            if (oldRoom != null && !oldRoom.equals(room)) {
+                leave(oldRoom, user);
+            }
+            roomMembers.compute(room, (_, members) -> {
+                if (members == null) members = ConcurrentHashMap.newKeySet();
+                members.add(user);
+                return members;
+            });
+            return room;
+        });
+        return previous[0];
+    }
+
+    /**
+     * Take a user offline
+     * @return the room the user was in, or null if the user was not online
+     */
+    public String remove(String username) {
+        String[] previous = new String[1];
+        userRooms.computeIfPresent(username, (user, room) -> {
+            previous[0] = room;
+            leave(room, user);
+            return null;
+        });
+        return previous[0];
+    }
+
+    private void leave(String room, String username) {
+        roomMembers.computeIfPresent(room, (_, members) -> {
+            members.remove(username);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    public String roomOf(String username) {
+        return userRooms.get(username);
+    }
+
+    /**
+     * Snapshot of the users in a room
+     */
+    public Set<String> membersOf(String room) {
+        Set<String> members = roomMembers.get(room);
+        return members == null ? new HashSet<>() : new HashSet<>(members);
+    }
+
+    public Set<String> users() {
+        return Collections.unmodifiableSet(userRooms.keySet());
+    }
+
+    /**
+     * Read-only user → room view
+     */
+    public Map<String, String> userRooms() {
+        return Collections.unmodifiableMap(userRooms);
+    }
+
+    public int userCount() {
+        return userRooms.size();
+    }
+
+    public int roomCount() {
+        return roomMembers.size();
+    }
+
+    public void clear() {
+        userRooms.clear();
+        roomMembers.clear();
+    }
+}
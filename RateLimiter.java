@@ -0,0 +1,97 @@
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RateLimiter - Token-bucket limits on accepted connections, overall and
+ * per source address, and on the messages each user sends.
+ *
+ * Buckets for addresses and users are created on first use and forgotten
+ * once they have refilled, so idle keys do not accumulate.
+ */
+public class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final TokenBucket acceptBucket;
+    private final double perAddressRate;
+    private final double perUserRate;
+    private final Map<InetAddress, TokenBucket> addressBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+    // Statistics
+    private final LongAdder acceptRejections = Metrics.counter("ratelimit.rejected", "accept");
+    private final LongAdder addressRejections = Metrics.counter("ratelimit.rejected", "address");
+    private final LongAdder messageRejections = Metrics.counter("ratelimit.rejected", "message");
+
+    /**
+     * Each bucket holds one second's worth of tokens
+     * @param acceptRate connections accepted per second across all clients
+     * @param perAddressRate connections accepted per second from one address
+     * @param perUserRate messages accepted per second from one user
+     */
+    public RateLimiter(double acceptRate, double perAddressRate, double perUserRate) {
+        this.acceptBucket = new TokenBucket(acceptRate, burstFor(acceptRate));
+        this.perAddressRate = perAddressRate;
+        this.perUserRate = perUserRate;
+    }
+
+    private static int burstFor(double rate) {
+        return (int) Math.max(1, Math.ceil(rate));
+    }
+
+    /**
+     * Whether the server may accept another connection right now
+     */
+    public boolean allowConnection() {
+        if (acceptBucket.tryAcquire()) return true;
+        acceptRejections.increment();
+        return false;
+    }
+
+    /**
+     * Whether another connection from this address may be accepted
+     */
+    public boolean allowConnectionFrom(InetAddress address) {
+        long now = System.nanoTime();
+        maybeSweep(now);
+
+        TokenBucket bucket = addressBuckets.get(address);
+        if (bucket == null) {
+            bucket = addressBuckets.computeIfAbsent(address, _ -> new TokenBucket(perAddressRate, burstFor(perAddressRate)));
+        }
+        if (bucket.tryAcquire(now)) return true;
+        addressRejections.increment();
+        return false;
+    }
+
+    /**
+     * Whether a user may send another message
+     */
+    public boolean allowMessage(String username) {
+        if (username == null) return true;
+
+        long now = System.nanoTime();
+        TokenBucket bucket = userBuckets.get(username);
+        if (bucket == null) {
+            bucket = userBuckets.computeIfAbsent(username, _ -> new TokenBucket(perUserRate, burstFor(perUserRate)));
+        }
+        if (bucket.tryAcquire(now)) return true;
+        messageRejections.increment();
+        return false;
+    }
+
+    /**
+     * Forget refilled buckets, at most once per interval, on whichever thread gets there first
+     */
+    private void maybeSweep(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) return;
+
+        addressBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        userBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Room - A chat room and the clients in it.
+ *
+ * Rooms are owned by one shard of the RoomRegistry and only change on that
+ * shard's thread. Members are published as an immutable array that is
+ * replaced on every join and leave, so a broadcast reads the whole room with
+ * one volatile load and never copies it. Joins and leaves are rare next to
+ * messages, and other threads, e.g. metrics, may read the snapshot too.
+ */
+public final class Room {
+    private static final ClientHandler[] NO_MEMBERS = new ClientHandler[0];
+
+    private final String name;
+    private final int id;
+    private volatile ClientHandler[] members = NO_MEMBERS;
+    private final LongAdder messages;
+
+    // Typing indicators, see TypingAggregator; touched only on the shard
+    private final Map<String, Long> typingUntil = new LinkedHashMap<>();
+    private String publishedTypists = "";
+    private long typingCheckDue = 0;
+
+    Room(String name, int id) {
+        this.name = name;
+        this.id = id;
+        this.messages = Metrics.counter("room.messages", name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Server-wide ID of the room in the binary protocol, or NameRegistry.NO_ID if it has none
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Current members; the array is shared and must not be modified
+     */
+    public ClientHandler[] members() {
+        return members;
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    public boolean isEmpty() {
+        return members.length == 0;
+    }
+
+    boolean add(ClientHandler client) {
+        ClientHandler[] current = members;
+        if (indexOf(current, client) >= 0) return false;
+        
+        ClientHandler[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = client;
+        members = next;
+        return true;
+    }
+
+    boolean remove(ClientHandler client) {
+        ClientHandler[] current = members;
+        int index = indexOf(current, client);
+        if (index < 0) return false;
+        
+        if (current.length == 1) {
+            members = NO_MEMBERS;
+            return true;
+        }
+        ClientHandler[] next = new ClientHandler[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(current, index + 1, next, index, next.length - index);
+        members = next;
+        return true;
+    }
+
+    private static int indexOf(ClientHandler[] clients, ClientHandler client) {
+        for (int i = 0; i < clients.length; i++) {
+            if (clients[i] == client) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Release what the room registered; called once the room is dropped
+     */
+    void close() {
+        Metrics.removeCounter("room.messages", name);
+    }
+
+    /**
+     * Count a chat message sent to the room
+     */
+    void messageSent() {
+        messages.increment();
+    }
+
+    void startedTyping(String user, long until) {
+        typingUntil.put(user, until);
+    }
+
+    /**
+     * @return true if the user was typing
+     */
+    boolean stoppedTyping(String user) {
+        return typingUntil.remove(user) != null;
+    }
+
+    /**
+     * Forget expired typists and list the rest, comma separated
+     * @return the list, or null if it is the same as the last one returned
+     */
+    String typingUsers(long now) {
+        StringBuilder typists = new StringBuilder();
+        for (Iterator<Map.Entry<String, Long>> it = typingUntil.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() - now <= 0) {
+                it.remove();
+            } else {
+                if (typists.length() > 0) typists.append(',');
+                typists.append(entry.getKey());
+            }
+        }
+        String list = typists.toString();
+        if (list.equals(publishedTypists)) return null;
+        publishedTypists = list;
+        return list;
+    }
+
+    /**
+     * When the next typist expires, or Long.MAX_VALUE if nobody is typing
+     */
+    long nextTypingExpiry() {
+        long next = Long.MAX_VALUE;
+        for (long until : typingUntil.values()) {
+            if (next == Long.MAX_VALUE || until - next < 0) next = until;
+        }
+        return next;
+    }
+
+    /**
+     * When the pending typing check runs, or 0 if none is scheduled
+     */
+    long getTypingCheckDue() {
+        return typingCheckDue;
+    }
+
+    void setTypingCheckDue(long due) {
+        typingCheckDue = due;
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RoomLog - Append-only, segmented message log for one room.
+ *
+ * Each room has its own directory of segment files. A segment is named
+ * after the offset of its first message (the number of messages appended
+ * to the room before it), so offsets survive restarts and old segments can
+ * be deleted without rewriting anything. Instances are not thread-safe:
+ * all calls are expected to come from the history writer thread. The static
+ * readers may be used from any thread while the log is being appended to.
+ */
+public class RoomLog {
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // Line counts of segment files by room log directory, shared by all readers
+    private static final Map<Path, Map<Path, SegmentLines>> segmentLines = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final NavigableMap<Long, Path> segments = new TreeMap<>();
+
+    private FileChannel active;
+    private long activeBytes;
+    private long nextOffset;
+    private int unsynced;
+
+    private RoomLog(Path dir, long maxSegmentBytes) {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Open a room log, creating its directory and first segment if needed
+     */
+    public static RoomLog open(Path dir, long maxSegmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        RoomLog log = new RoomLog(dir, maxSegmentBytes);
+        log.segments.putAll(listSegments(dir));
+
+        if (log.segments.isEmpty()) {
+            log.openSegment(0);
+        } else {
+            Map.Entry<Long, Path> last = log.segments.lastEntry();
+            log.active = FileChannel.open(last.getValue(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+            log.activeBytes = truncateToLastLine(log.active);
+            log.active.position(log.activeBytes);
+            log.nextOffset = last.getKey() + countLines(log.active, log.activeBytes);
+        }
+        return log;
+    }
+
+    /**
+     * Append one message to the active segment, rolling to a new segment when it is full
+     */
+    public void append(String message) throws IOException {
+        appendAll(Collections.singletonList(message));
+    }
+
+    /**
+     * Append a batch of messages with as few gathering writes as possible.
+     * The batch is only split where it crosses a segment boundary.
+     */
+    public void appendAll(List<String> messages) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[messages.size()];
+        int count = 0;
+        long pendingBytes = 0;
+
+        for (String message : messages) {
+            ByteBuffer bytes = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+            if (activeBytes + pendingBytes > 0 && activeBytes + pendingBytes + bytes.remaining() > maxSegmentBytes) {
+                writeFully(buffers, count);
+                count = 0;
+                pendingBytes = 0;
+                roll();
+            }
+            buffers[count++] = bytes;
+            pendingBytes += bytes.remaining();
+        }
+        writeFully(buffers, count);
+    }
+
+    private void writeFully(ByteBuffer[] buffers, int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            activeBytes += active.write(buffers, first, count - first);
+            while (first < count && !buffers[first].hasRemaining()) {
+                first++;
+                nextOffset++;
+                unsynced++;
+            }
+        }
+    }
+
+    /**
+     * Force appended messages to disk
+     */
+    public void sync() throws IOException {
+        if (unsynced > 0) {
+            active.force(false);
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Messages appended since the last sync
+     */
+    public int getUnsyncedCount() {
+        return unsynced;
+    }
+
+    /**
+     * Offset the next appended message will get; equals the number of messages ever appended
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Delete closed segments whose messages all fall outside the retained window
+     * @param retainMessages number of most recent messages that must be kept
+     * @return number of segments deleted
+     */
+    public int compact(long retainMessages) throws IOException {
+        long keepFrom = nextOffset - retainMessages;
+        int deleted = 0;
+
+        Iterator<Map.Entry<Long, Path>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Path> segment = it.next();
+            Long nextBase = segments.higherKey(segment.getKey());
+            // Never touch the active segment, and only drop segments that end before keepFrom
+            if (nextBase == null || nextBase > keepFrom) break;
+
+            Files.deleteIfExists(segment.getValue());
+            Map<Path, SegmentLines> counted = segmentLines.get(dir);
+            if (counted != null) counted.remove(segment.getValue());
+            it.remove();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Sync and close the active segment
+     */
+    public void close() throws IOException {
+        if (active != null) {
+            sync();
+            active.close();
+            active = null;
+        }
+        forgetLineCounts(dir);
+    }
+
+    /**
+     * Drop the line counts readers keep for a room log, e.g. once the room
+     * has gone cold; they are recounted if the log is read again
+     */
+    public static void forgetLineCounts(Path dir) {
+        segmentLines.remove(dir);
+    }
+
+    /**
+     * The newest messages of a room log and the offset that follows them
+     */
+    public static class Tail {
+        public final List<String> messages;
+        public final long nextOffset;
+
+        Tail(List<String> messages, long nextOffset) {
+            this.messages = messages;
+            this.nextOffset = nextOffset;
+        }
+    }
+
+    /**
+     * Read the last messages of a room log without opening it for writing.
+     * Segments are memory-mapped and scanned backwards from the end, so only
+     * the returned lines are decoded and the rest of the file stays in the
+     * page cache rather than the heap.
+     * @param dir room log directory
+     * @param limit maximum number of messages to return
+     * @return up to limit messages, oldest first
+     */
+    public static Tail readTail(Path dir, int limit) throws IOException {
+        LinkedList<String> tail = new LinkedList<>();
+        if (!Files.isDirectory(dir)) return new Tail(tail, 0);
+
+        // Walk segments newest first until enough messages are collected
+        long nextOffset = -1;
+        for (Map.Entry<Long, Path> segment : listSegments(dir).descendingMap().entrySet()) {
+            try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                if (nextOffset < 0) {
+                    nextOffset = segment.getKey() + linesFor(dir, segment.getValue()).update(channel);
+                }
+                long size = channel.size();
+                if (size > 0) {
+                    readLinesBackwards(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), limit, tail);
+                }
+            }
+            if (tail.size() >= limit) break;
+        }
+        return new Tail(tail, Math.max(nextOffset, 0));
+    }
+
+    /**
+     * Prepend complete lines from the end of a mapped segment until lines holds limit entries
+     */
+    private static void readLinesBackwards(MappedByteBuffer map, int limit, LinkedList<String> lines) {
+        int lineEnd = map.limit();
+        // A trailing line without its newline is still being written (or was torn by a crash)
+        while (lineEnd > 0 && map.get(lineEnd - 1) != '\n') {
+            lineEnd--;
+        }
+
+        while (lineEnd > 0 && lines.size() < limit) {
+            int contentEnd = lineEnd - 1;
+            int start = contentEnd;
+            while (start > 0 && map.get(start - 1) != '\n') {
+                start--;
+            }
+            if (contentEnd > start && map.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+
+            if (contentEnd > start) {
+                byte[] bytes = new byte[contentEnd - start];
+                map.get(start, bytes);
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if (!line.trim().isEmpty()) {
+                    lines.addFirst(line);
+                }
+            }
+            lineEnd = start;
+        }
+    }
+
+    private static SegmentLines linesFor(Path dir, Path segment) {
+        return segmentLines.computeIfAbsent(dir, _ -> new ConcurrentHashMap<>())
+            .computeIfAbsent(segment, _ -> new SegmentLines());
+    }
+
+    /**
+     * Running line count of one segment. Counted on first use and extended
+     * incrementally as the segment grows, so the line count of an active
+     * segment never requires rescanning it.
+     */
+    static final class SegmentLines {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long countedBytes = 0;
+        private long lines = 0;
+
+        /**
+         * Count complete lines written since the last call
+         * @return number of complete lines in the segment
+         */
+        long update(FileChannel channel) throws IOException {
+            lock.lock();
+            try {
+                long size = channel.size();
+                if (size > countedBytes) {
+                    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, countedBytes, size - countedBytes);
+                    long lastLineEnd = countedBytes;
+                    for (int i = 0; i < map.limit(); i++) {
+                        if (map.get(i) != '\n') continue;
+                        lines++;
+                        lastLineEnd = countedBytes + i + 1;
+                    }
+                    // Recount a partial last line next time
+                    countedBytes = lastLineEnd;
+                }
+                return lines;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Turn a pre-segmentation history file into the first segment of a room log
+     */
+    public static void migrateLegacyFile(Path legacyFile, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Files.move(legacyFile, dir.resolve(segmentName(0)), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void roll() throws IOException {
+        active.force(false);
+        active.close();
+        unsynced = 0;
+        openSegment(nextOffset);
+    }
+
+    private void openSegment(long baseOffset) throws IOException {
+        Path file = dir.resolve(segmentName(baseOffset));
+        active = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        activeBytes = active.size();
+        active.position(activeBytes);
+        segments.put(baseOffset, file);
+        nextOffset = baseOffset;
+    }
+
+    private static String segmentName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SEGMENT_SUFFIX);
+    }
+
+    private static NavigableMap<Long, Path> listSegments(Path dir) throws IOException {
+        NavigableMap<Long, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    found.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    Log.warn("Ignoring unexpected file in room log: " + file);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drop a partially written last line left behind by a crash
+     * @return the new size of the file
+     */
+    private static long truncateToLastLine(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        long end = size;
+        while (end > 0) {
+            one.clear();
+            channel.read(one, end - 1);
+            if (one.get(0) == '\n') break;
+            end--;
+        }
+        if (end < size) {
+            channel.truncate(end);
+        }
+        return end;
+    }
+
+    private static long countLines(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long lines = 0;
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') lines++;
+            }
+            position += read;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * RoomRegistry - All active rooms, sharded by name across single-threaded
+ * executors.
+ *
+ * Every operation on a room runs on the shard that owns it, in the order it
+ * was submitted, so joins, leaves and broadcasts in one room never race and
+ * rooms on different shards never contend. A room is created by its first
+ * join and removed by its last leave, both on the owning shard.
+ *
+ * Work that must wait for something slow, such as a room's history being
+ * read from disk, holds back only that room's tasks: they queue up in order
+ * on the shard while the other rooms it owns carry on.
+ */
+public class RoomRegistry {
+    private final Shard[] shards;
+    private final NameRegistry roomIds;
+
+    // Statistics
+    private final LongAdder tasksRun = new LongAdder();
+    private final LongAdder tasksFailed = new LongAdder();
+
+    /**
+     * One executor and the rooms it owns. The map is written only by the
+     * executor's thread and may be read by any thread.
+     */
+    private static final class Shard {
+        final ExecutorService executor;
+        final Map<String, Room> rooms = new ConcurrentHashMap<>();
+        final Map<String, Hold> holds = new HashMap<>(); // Executor's thread only
+
+        Shard(int index) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "room-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Tasks of one room waiting for its holds to be released
+     */
+    private static final class Hold {
+        int pending = 0;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    }
+
+    /**
+     * @param shardCount number of shards, typically the CPU count
+     * @param roomIds source of room IDs for the binary protocol
+     */
+    public RoomRegistry(int shardCount, NameRegistry roomIds) {
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        this.roomIds = roomIds;
+    }
+
+    private Shard shardFor(String room) {
+        return shards[Math.floorMod(room.hashCode(), shards.length)];
+    }
+
+    /**
+     * Add a client to a room, creating the room if needed, then run an action
+     * on the room's shard
+     */
+    public void join(String name, ClientHandler client, Consumer<Room> then) {
+        Shard shard = shardFor(name);
+        submitToRoom(shard, name, () -> {
+            Room room = shard.rooms.computeIfAbsent(name, _ -> new Room(name, roomIds.acquire(name)));
+            room.add(client);
+            then.accept(room);
+        });
+    }
+
+    /**
+     * Remove a client from a room, dropping the room once it is empty. The
+     * action runs only if members remain.
+     */
+    public void leave(String name, ClientHandler client, Consumer<Room> then) {
+        Shard shard = shardFor(name);
+        submitToRoom(shard, name, () -> {
+            Room room = shard.rooms.get(name);
+            if (room == null || !room.remove(client)) return;
+            if (room.isEmpty()) {
+                shard.rooms.remove(name);
+                room.close();
+                // The room's ID may now go to another room
+                if (room.getId() != NameRegistry.NO_ID) roomIds.release(name);
+            } else {
+                then.accept(room);
+            }
+        });
+    }
+
+    /**
+     * Run an action on a room's shard; nothing happens if the room has no members
+     */
+    public void execute(String name, Consumer<Room> action) {
+        Shard shard = shardFor(name);
+        submitToRoom(shard, name, () -> {
+            Room room = shard.rooms.get(name);
+            if (room != null) {
+                action.accept(room);
+            }
+        });
+    }
+
+    /**
+     * Hold back a room's tasks until a future completes: tasks submitted
+     * after this call wait and then run in order, without delaying other
+     * rooms on the shard. Nothing is held if the future is already done.
+     */
+    public void holdUntil(String name, CompletableFuture<?> ready) {
+        if (ready.isDone()) return;
+
+        Shard shard = shardFor(name);
+        execute(shard, () -> {
+            shard.holds.computeIfAbsent(name, _ -> new Hold()).pending++;
+            ready.whenComplete((_, _) -> execute(shard, () -> release(shard, name)));
+        });
+    }
+
+    private void release(Shard shard, String name) {
+        Hold hold = shard.holds.get(name);
+        if (hold == null || --hold.pending > 0) return;
+
+        shard.holds.remove(name);
+        for (Runnable task : hold.tasks) {
+            run(task);
+        }
+    }
+
+    /**
+     * Run a room's task on its shard, or queue it behind the room's hold
+     */
+    private void submitToRoom(Shard shard, String name, Runnable task) {
+        execute(shard, () -> {
+            Hold hold = shard.holds.get(name);
+            if (hold != null) {
+                hold.tasks.add(task);
+            } else {
+                run(task);
+            }
+        });
+    }
+
+    private void execute(Shard shard, Runnable step) {
+        try {
+            shard.executor.execute(step);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+            tasksRun.increment();
+        } catch (Exception e) {
+            tasksFailed.increment();
+            Log.error("❌ Room task failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Visit every room from the calling thread; the view is weakly consistent
+     */
+    public void forEachRoom(Consumer<Room> visitor) {
+        for (Shard shard : shards) {
+            shard.rooms.values().forEach(visitor);
+        }
+    }
+
+    public int roomCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.rooms.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stop accepting room tasks and let queued ones finish, so chat already
+     * received still reaches the history
+     */
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        try {
+            for (Shard shard : shards) {
+                if (!shard.executor.awaitTermination(2, TimeUnit.SECONDS)) {
+                    shard.executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getStats() {
+        return String.format("• Room shards: %d, %d room tasks run, %d failed",
+            shards.length, tasksRun.sum(), tasksFailed.sum());
+    }
+}
@@ -0,0 +1,123 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SessionRegistry - Resumable sessions, so a client that lost its connection
+ * comes back as the same user in the same room without joining again.
+ *
+ * A client's first join hands it a random token. Presenting the token on a
+ * new connection restores the user and room, and closes the old connection
+ * if the server still thinks it is open. Sessions live in memory only and
+ * are forgotten once their connection has been closed for the TTL, so after
+ * a server restart clients simply join again.
+ */
+public class SessionRegistry {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int TOKEN_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+    // Statistics
+    private final LongAdder opened = Metrics.counter("sessions.opened");
+    private final LongAdder resumed = Metrics.counter("sessions.resumed");
+    private final LongAdder unknown = Metrics.counter("sessions.unknown");
+
+    /**
+     * One user's session. The owner is the connection currently using it,
+     * or null while the user is away.
+     */
+    static final class Session {
+        final String token;
+        final String username;
+        volatile String room;
+        private final AtomicReference<ClientHandler> owner;
+        private volatile long detachedAt;
+
+        private Session(String token, String username, ClientHandler owner) {
+            this.token = token;
+            this.username = username;
+            this.owner = new AtomicReference<>(owner);
+        }
+    }
+
+    /**
+     * @param ttlSeconds how long a session can be resumed after its connection closes
+     */
+    public SessionRegistry(long ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+    }
+
+    /**
+     * Start a session for a user who joined on this connection
+     */
+    public Session open(String username, ClientHandler owner) {
+        maybeSweep(System.nanoTime());
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, username, owner);
+        sessions.put(token, session);
+        opened.increment();
+        return session;
+    }
+
+    /**
+     * Move a session to a new connection, closing the one that had it
+     * @return the session, or null if the token is unknown or has expired
+     */
+    public Session resume(String token, ClientHandler owner) {
+        long now = System.nanoTime();
+        maybeSweep(now);
+
+        Session session = sessions.get(token);
+        if (session == null || isExpired(session, now)) {
+            unknown.increment();
+            return null;
+        }
+        ClientHandler previous = session.owner.getAndSet(owner);
+        if (previous != null && previous != owner) {
+            // Usually a half-open connection the client has already given up on
+            previous.cleanup();
+        }
+        resumed.increment();
+        return session;
+    }
+
+    /**
+     * Note that a connection using a session closed; the session can be
+     * resumed until the TTL passes
+     */
+    public void detach(Session session, ClientHandler owner) {
+        session.detachedAt = System.nanoTime();
+        session.owner.compareAndSet(owner, null);
+    }
+
+    private boolean isExpired(Session session, long now) {
+        return session.owner.get() == null && now - session.detachedAt > ttlNanos;
+    }
+
+    /**
+     * Forget expired sessions, at most once per interval, on whichever thread gets there first
+     */
+    private void maybeSweep(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) return;
+
+        sessions.values().removeIf(session -> isExpired(session, now));
+    }
+
+    public String getStats() {
+        return String.format("• Sessions: %d held, %d opened, %d resumed, %d unknown",
+            sessions.size(), opened.sum(), resumed.sum(), unknown.sum());
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket - Lock-free token bucket.
+ *
+ * Instead of a token count and a refill timestamp, the whole state is one
+ * long: the time at which the bucket will be full again (the "theoretical
+ * arrival time" of the generic cell rate algorithm). Taking a token pushes
+ * that time one token interval later; a request is refused if that would
+ * put it more than a full bucket ahead of now. A check is one CAS and
+ * never allocates.
+ */
+public final class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst tokens the bucket holds, i.e. requests allowed back to back
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.nanosPerToken = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = nanosPerToken * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take one token if available
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + nanosPerToken;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * True if the bucket has refilled completely, so forgetting it loses nothing
+     */
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
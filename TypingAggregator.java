@@ -0,0 +1,112 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * TypingAggregator - Turns typing notifications into at most one
+ * "[TYPING_USERS]" update per room per interval.
+ *
+ * Each room keeps who is typing and until when; the state lives in the Room
+ * and is only touched on its shard. A notification refreshes the user's
+ * deadline and, if none is pending, schedules an update. The update lists
+ * whoever is still typing and is only sent if the list changed. While
+ * anyone is typing another check is scheduled for their expiry, so users
+ * who stop without sending drop off on their own.
+ */
+public class TypingAggregator {
+    private final RoomRegistry rooms;
+    private final long intervalMillis;
+    private final long expiryNanos;
+    private final BiConsumer<Room, String> publish;
+    private final ScheduledExecutorService scheduler;
+
+    // Statistics
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    /**
+     * @param intervalMillis minimum time between updates to one room
+     * @param expiryMillis how long a user counts as typing after their last notification
+     * @param publish sends a room's typing list to its members; runs on the room's shard
+     */
+    public TypingAggregator(RoomRegistry rooms, long intervalMillis, long expiryMillis, BiConsumer<Room, String> publish) {
+        this.rooms = rooms;
+        this.intervalMillis = Math.max(0, intervalMillis);
+        this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiryMillis);
+        this.publish = publish;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "typing-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Note that a user is typing in a room
+     */
+    public void typing(String room, String user) {
+        if (room == null || user == null) return;
+
+        notifications.increment();
+        rooms.execute(room, target -> {
+            target.startedTyping(user, System.nanoTime() + expiryNanos);
+            scheduleUpdate(target, intervalMillis);
+        });
+    }
+
+    /**
+     * Note that a user stopped typing, e.g. because they sent their message
+     * or left. Must run on the room's shard.
+     */
+    public void stopped(Room room, String user) {
+        if (user != null && room.stoppedTyping(user)) {
+            scheduleUpdate(room, intervalMillis);
+        }
+    }
+
+    /**
+     * Make sure the room is checked within the delay; a check already due sooner covers it
+     */
+    private void scheduleUpdate(Room room, long delayMillis) {
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long pending = room.getTypingCheckDue();
+        if (pending != 0 && pending - due <= 0) return;
+
+        room.setTypingCheckDue(due);
+        String name = room.getName();
+        scheduler.schedule(() -> rooms.execute(name, target -> update(target, due)), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the room's typing list if it changed; runs on the room's shard
+     * @param due when this check was scheduled for; checks replaced by a sooner one are skipped
+     */
+    private void update(Room room, long due) {
+        if (room.getTypingCheckDue() != due) return;
+        room.setTypingCheckDue(0);
+
+        long now = System.nanoTime();
+        String typists = room.typingUsers(now);
+        if (typists != null) {
+            publish.accept(room, typists);
+            updates.increment();
+        }
+
+        // Check again when the next typist expires, but never sooner than the interval
+        long nextExpiry = room.nextTypingExpiry();
+        if (nextExpiry != Long.MAX_VALUE) {
+            long delayMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nextExpiry - now)) + 1;
+            scheduleUpdate(room, Math.max(intervalMillis, delayMillis));
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public String getStats() {
+        return String.format("• Typing updates: %d for %d notifications", updates.sum(), notifications.sum());
+    }
+}
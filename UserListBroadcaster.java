@@ -0,0 +1,71 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * UserListBroadcaster - Coalesces user-list updates per room.
+ *
+ * Joins and leaves only mark their room as changed. The first change
+ * schedules one broadcast after the window; changes made before it runs
+ * are folded into the same snapshot. N users joining a room within one
+ * window therefore cost one user list per member instead of N.
+ */
+public class UserListBroadcaster {
+    private final long windowMillis;
+    private final Consumer<String> publish;
+    private final Set<String> pendingRooms = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    // Statistics
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong broadcasts = new AtomicLong();
+
+    /**
+     * @param windowMillis how long changes to a room are collected before its list is sent
+     * @param publish sends the current user list of a room to its members
+     */
+    public UserListBroadcaster(long windowMillis, Consumer<String> publish) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.publish = publish;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-list-broadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Note that a room's membership changed
+     */
+    public void roomChanged(String room) {
+        if (room == null) return;
+
+        changes.incrementAndGet();
+        if (pendingRooms.add(room)) {
+            scheduler.schedule(() -> flush(room), windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(String room) {
+        // Clear first so a change made while publishing schedules another broadcast
+        pendingRooms.remove(room);
+        try {
+            publish.accept(room);
+            broadcasts.incrementAndGet();
+        } catch (Exception e) {
+            Log.error("❌ Error broadcasting user list for room " + room + ": " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public String getStats() {
+        return String.format("• User list broadcasts: %d for %d membership changes", broadcasts.get(), changes.get());
+    }
+}
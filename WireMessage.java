@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WireMessage - A protocol line encoded once as UTF-8, line terminator
+ * included, or an encoded binary protocol frame. The encoded bytes are
+ * never modified, so a broadcast costs one encode no matter how many
+ * clients are in the room.
+ *
+ * Blocking writers copy the heap bytes straight into their stream. The NIO
+ * writer uses channel views instead; for messages shared by many
+ * recipients it uses one direct copy, made the first time it is needed,
+ * so the channel does not copy the bytes again for every recipient.
+ */
+public final class WireMessage {
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final boolean shared;
+    private final boolean droppable;
+    private volatile ByteBuffer direct; // Made on first NIO write of a shared message
+
+    private WireMessage(byte[] bytes, int offset, int length, boolean shared, boolean droppable) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.shared = shared;
+        this.droppable = droppable;
+    }
+
+    private WireMessage(ByteBuffer frame, boolean shared, boolean droppable) {
+        this(frame.hasArray() ? frame.array() : copy(frame),
+            frame.hasArray() ? frame.arrayOffset() + frame.position() : 0,
+            frame.remaining(), shared, droppable);
+    }
+
+    /**
+     * Encode a line for a single recipient
+     */
+    public static WireMessage of(String line) {
+        byte[] encoded = encode(line);
+        return new WireMessage(encoded, 0, encoded.length, false, false);
+    }
+
+    /**
+     * Encode a line that will be shared by many recipients
+     * @param droppable true if recipients under backpressure may discard it
+     */
+    public static WireMessage broadcast(String line, boolean droppable) {
+        byte[] encoded = encode(line);
+        return new WireMessage(encoded, 0, encoded.length, true, droppable);
+    }
+
+    /**
+     * Wrap a binary protocol frame for a single recipient
+     */
+    public static WireMessage frame(ByteBuffer frame) {
+        return new WireMessage(frame, false, false);
+    }
+
+    /**
+     * Wrap a binary protocol frame shared by many recipients
+     * @param droppable true if recipients under backpressure may discard it
+     */
+    public static WireMessage broadcastFrame(ByteBuffer frame, boolean droppable) {
+        return new WireMessage(frame, true, droppable);
+    }
+
+    private static byte[] encode(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer frame) {
+        byte[] copy = new byte[frame.remaining()];
+        frame.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Write the message to a stream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * A fresh read-only view positioned at the start of the message, for
+     * channel writes. Shared messages are viewed through one direct copy;
+     * racing first writers may each make one, which is harmless.
+     */
+    public ByteBuffer view() {
+        if (!shared) {
+            return ByteBuffer.wrap(bytes, offset, length).asReadOnlyBuffer();
+        }
+        ByteBuffer copy = direct;
+        if (copy == null) {
+            copy = ByteBuffer.allocateDirect(length);
+            copy.put(bytes, offset, length).flip();
+            direct = copy = copy.asReadOnlyBuffer();
+        }
+        return copy.duplicate();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isDroppable() {
+        return droppable;
+    }
+}